@@ -0,0 +1,83 @@
+package com.stuffthathappens.games.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.stuffthathappens.games.BouncingBallModel;
+import com.stuffthathappens.games.support.ManualClock;
+
+/**
+ * One physics step of the bouncing ball model. Gravity turns a little on
+ * every call, so the balls keep sloshing around instead of settling.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BouncingBallBenchmark {
+	static final int BALL_RADIUS = 4;
+	// a bit more than the model's 120Hz step, so every call does one step
+	static final long STEP_NANOS = 1000000000L / 120 + 1;
+
+	@Param({ "1", "100", "10000", "100000" })
+	public int balls;
+
+	private ManualClock clock;
+	private BouncingBallModel model;
+	private double angle;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		clock = new ManualClock();
+		model = createModel(clock, balls);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		model.dispose();
+	}
+
+	/**
+	 * @return a model with <code>balls</code> balls spread over a square
+	 *         field with room for about four times as many.
+	 */
+	static BouncingBallModel createModel(ManualClock clock, int balls) {
+		BouncingBallModel model = new BouncingBallModel(BALL_RADIUS, clock);
+		int side = (int) Math.ceil(Math.sqrt(balls) * BALL_RADIUS * 4) + 20;
+		model.setSize(side, side);
+		Random random = new Random(42);
+		// the model starts with one ball
+		for (int i = 1; i < balls; i++) {
+			model.addBall(random.nextFloat() * side, random.nextFloat() * side);
+		}
+		model.setAccel(0, 9.8f);
+		model.updatePhysics();
+		return model;
+	}
+
+	@Benchmark
+	public BouncingBallModel updatePhysics() {
+		angle += 0.01;
+		model.setAccel((float) (9.8 * Math.sin(angle)),
+				(float) (9.8 * Math.cos(angle)));
+		clock.advance(STEP_NANOS);
+		model.updatePhysics();
+		return model;
+	}
+}
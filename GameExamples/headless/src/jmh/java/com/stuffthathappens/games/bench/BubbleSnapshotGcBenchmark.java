@@ -0,0 +1,101 @@
+package com.stuffthathappens.games.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.stuffthathappens.games.BubblesModel;
+import com.stuffthathappens.games.CircleBuffer;
+import com.stuffthathappens.games.support.ManualClock;
+
+/**
+ * GC pressure of handing one frame of bubbles to the renderer, before and
+ * after the reusable snapshots. Run with <code>-prof gc</code> and compare
+ * gc.alloc.rate.norm.
+ * <p>
+ * The old getBubbles() built a new list of new Bubble objects under the
+ * model's lock, which {@link #copyToList()} does the same way. The new
+ * path is the update publishing into a reused buffer and the renderer
+ * acquiring it. Both walk every bubble like drawing does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BubbleSnapshotGcBenchmark {
+
+	// what getBubbles() used to hand out
+	static class Bubble {
+		float x, y, radius;
+
+		Bubble(float x, float y) {
+			this.x = x;
+			this.y = y;
+		}
+	}
+
+	@Param({ "100", "10000", "100000" })
+	public int bubbles;
+
+	private BubblesModel model;
+	private final Object lock = new Object();
+	private float[] xs, ys, radii;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		model = BubblesBenchmark.createModel(new ManualClock(), bubbles);
+		CircleBuffer b = model.acquireBubbles();
+		xs = new float[bubbles];
+		ys = new float[bubbles];
+		radii = new float[bubbles];
+		System.arraycopy(b.x, 0, xs, 0, bubbles);
+		System.arraycopy(b.y, 0, ys, 0, bubbles);
+		System.arraycopy(b.radius, 0, radii, 0, bubbles);
+	}
+
+	@Benchmark
+	public float copyToList() {
+		List<Bubble> list;
+		synchronized (lock) {
+			list = new ArrayList<Bubble>(bubbles);
+			for (int i = 0; i < bubbles; i++) {
+				Bubble b = new Bubble(xs[i], ys[i]);
+				b.radius = radii[i];
+				list.add(b);
+			}
+		}
+		float total = 0;
+		for (Bubble b : list) {
+			total += b.x + b.y + b.radius;
+		}
+		return total;
+	}
+
+	@Benchmark
+	public float publishAndAcquire() {
+		model.updateBubbles();
+		CircleBuffer b = model.acquireBubbles();
+		final int n = b.count;
+		final float[] x = b.x, y = b.y, r = b.radius;
+		float total = 0;
+		for (int i = 0; i < n; i++) {
+			total += x[i] + y[i] + r[i];
+		}
+		return total;
+	}
+}
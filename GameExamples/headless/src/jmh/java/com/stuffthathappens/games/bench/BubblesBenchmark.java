@@ -0,0 +1,130 @@
+package com.stuffthathappens.games.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.stuffthathappens.games.BubblesModel;
+import com.stuffthathappens.games.support.ManualClock;
+
+/**
+ * The bubbles model's update and add paths, with the model
+ * already holding <code>bubbles</code> live bubbles.
+ * <p>
+ * The clock stands still during the update benchmarks, so no bubble
+ * reaches its lifetime and the count stays put. Every update still grows
+ * and publishes all of them, which is the part that scales.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BubblesBenchmark {
+	static final int WIDTH = 1024, HEIGHT = 1024;
+	static final int ADDS = 1000;
+	static final int ADD_WARMUPS = 10;
+	static final int ADD_ITERATIONS = 30;
+
+	@Param({ "1", "100", "10000", "100000" })
+	public int bubbles;
+
+	private ManualClock clock;
+	private BubblesModel model;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		clock = new ManualClock();
+		model = createModel(clock, bubbles);
+	}
+
+	static BubblesModel createModel(ManualClock clock, int bubbles) {
+		return createModel(clock, bubbles, WIDTH, HEIGHT);
+	}
+
+	static BubblesModel createModel(ManualClock clock, int bubbles,
+			int width, int height) {
+		BubblesModel model = new BubblesModel(clock);
+		model.setSize(width, height);
+		Random random = new Random(42);
+		for (int i = 0; i < bubbles; i++) {
+			model.addBubble(random.nextFloat() * width,
+					random.nextFloat() * height);
+		}
+		model.updateBubbles();
+		return model;
+	}
+
+	@Benchmark
+	public BubblesModel updateBubbles() {
+		model.updateBubbles();
+		return model;
+	}
+
+	/**
+	 * Adding grows the model, so each measurement starts from a fresh
+	 * model with <code>bubbles</code> bubbles and adds a batch on top. The
+	 * models are all built up front, so building them doesn't count
+	 * towards what addBubble allocates.
+	 */
+	@State(Scope.Thread)
+	public static class AddState {
+		private BubblesModel[] models;
+		private int next;
+		BubblesModel model;
+		final float[] xs = new float[ADDS], ys = new float[ADDS];
+
+		@Setup(Level.Trial)
+		public void setUp(BubblesBenchmark outer) {
+			models = new BubblesModel[ADD_ITERATIONS];
+			for (int i = 0; i < models.length; i++) {
+				models[i] = createModel(new ManualClock(), outer.bubbles);
+			}
+			Random random = new Random(7);
+			for (int i = 0; i < ADDS; i++) {
+				xs[i] = random.nextFloat() * WIDTH;
+				ys[i] = random.nextFloat() * HEIGHT;
+			}
+		}
+
+		@Setup(Level.Iteration)
+		public void nextModel(BubblesBenchmark outer) {
+			if (next < models.length) {
+				model = models[next];
+				// let the used ones go
+				models[next++] = null;
+			} else {
+				// more iterations asked for on the command line
+				model = createModel(new ManualClock(), outer.bubbles);
+			}
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	@Warmup(iterations = ADD_WARMUPS)
+	@Measurement(iterations = ADD_ITERATIONS - ADD_WARMUPS)
+	@OperationsPerInvocation(ADDS)
+	public BubblesModel addBubble(AddState s) {
+		BubblesModel m = s.model;
+		for (int i = 0; i < ADDS; i++) {
+			m.addBubble(s.xs[i], s.ys[i]);
+		}
+		return m;
+	}
+}
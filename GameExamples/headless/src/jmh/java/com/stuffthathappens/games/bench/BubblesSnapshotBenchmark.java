@@ -0,0 +1,59 @@
+package com.stuffthathappens.games.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.stuffthathappens.games.BubblesModel;
+import com.stuffthathappens.games.CircleBuffer;
+import com.stuffthathappens.games.support.ManualClock;
+
+/**
+ * The update thread publishing snapshots while the render thread takes
+ * the newest one, as they run in the app. The acquireBubbles score is the
+ * one to watch, it mustn't grow with the bubble count or allocate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class BubblesSnapshotBenchmark {
+
+	@Param({ "1", "100", "10000", "100000" })
+	public int bubbles;
+
+	private BubblesModel model;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		model = BubblesBenchmark.createModel(new ManualClock(), bubbles);
+	}
+
+	@Benchmark
+	@Group("snapshot")
+	public BubblesModel publish() {
+		model.updateBubbles();
+		return model;
+	}
+
+	@Benchmark
+	@Group("snapshot")
+	public int acquireBubbles() {
+		CircleBuffer b = model.acquireBubbles();
+		return b.count;
+	}
+}
@@ -0,0 +1,51 @@
+package com.stuffthathappens.games.bench;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.stuffthathappens.games.CharFormat;
+
+/**
+ * Formatting one accelerometer label, <code>X: +9.80665 (-0.01234)</code>,
+ * with String.format as Accel used to and with {@link CharFormat} as it
+ * does now. It happens for three labels per sensor sample. Run with
+ * -prof gc to compare the garbage per label.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CharFormatBenchmark {
+	private final char[] text = new char[64];
+	private float value = 9.80665f;
+	private final float delta = -0.01234f;
+
+	@Benchmark
+	public String stringFormat() {
+		value += 0.001f;
+		return String.format(Locale.US, "X: %+2.5f (%+2.5f)", value, delta);
+	}
+
+	@Benchmark
+	public int charFormat() {
+		value += 0.001f;
+		int len = CharFormat.append("X: ", text, 0);
+		len = CharFormat.appendSigned(value, 5, text, len);
+		len = CharFormat.append(" (", text, len);
+		len = CharFormat.appendSigned(delta, 5, text, len);
+		text[len++] = ')';
+		return len;
+	}
+}
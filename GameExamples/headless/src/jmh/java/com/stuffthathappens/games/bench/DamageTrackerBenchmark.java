@@ -0,0 +1,81 @@
+package com.stuffthathappens.games.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.stuffthathappens.games.CircleBuffer;
+import com.stuffthathappens.games.DamageTracker;
+
+/**
+ * Cost of the per-frame damage pass, comparing two frames of circles.
+ * With one circle moving the rest are skipped, which is the usual case
+ * for balls at rest. With every circle moving the tracker gives up early
+ * and reports a full frame. With the first circle popped the rest line up
+ * by id, so only the popped one is marked.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DamageTrackerBenchmark {
+	private static final int SIZE = 1024;
+
+	@Param({ "100", "10000", "100000" })
+	public int circles;
+
+	@Param({ "one", "all", "popped" })
+	public String moving;
+
+	private final DamageTracker tracker = new DamageTracker(0.5f);
+	private CircleBuffer before, after;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		tracker.setSize(SIZE, SIZE);
+		before = new CircleBuffer(circles);
+		after = new CircleBuffer(circles);
+		Random random = new Random(5);
+		for (int i = 0; i < circles; i++) {
+			before.x[i] = after.x[i] = random.nextFloat() * SIZE;
+			before.y[i] = after.y[i] = random.nextFloat() * SIZE;
+			before.radius[i] = after.radius[i] = 4;
+			before.id[i] = after.id[i] = i;
+		}
+		before.count = after.count = circles;
+		if ("one".equals(moving)) {
+			after.x[circles / 2] += 1;
+		} else if ("popped".equals(moving)) {
+			after.count = circles - 1;
+			System.arraycopy(before.x, 1, after.x, 0, after.count);
+			System.arraycopy(before.y, 1, after.y, 0, after.count);
+			System.arraycopy(before.id, 1, after.id, 0, after.count);
+		} else {
+			for (int i = 0; i < circles; i++) {
+				after.x[i] += 1;
+			}
+		}
+	}
+
+	@Benchmark
+	public boolean addChanges() {
+		tracker.frameDrawn();
+		tracker.reset();
+		tracker.addChanges(before, after);
+		return tracker.isFullFrame();
+	}
+}
@@ -0,0 +1,78 @@
+package com.stuffthathappens.games.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.stuffthathappens.games.BubblesModel;
+import com.stuffthathappens.games.CircleBuffer;
+import com.stuffthathappens.games.support.ManualClock;
+
+/**
+ * Latency of finding the bubble under a tap, through the model's grid and
+ * by scanning every bubble, which is what a tap would cost without it.
+ * The field grows with the bubble count so there are about as many
+ * bubbles under a finger at every size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HitTestBenchmark {
+	private static final int POINTS = 1024;
+
+	@Param({ "10000", "100000" })
+	public int bubbles;
+
+	private BubblesModel model;
+	private CircleBuffer snapshot;
+	private final float[] xs = new float[POINTS], ys = new float[POINTS];
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		int side = (int) (Math.sqrt(bubbles) * 40);
+		model = BubblesBenchmark.createModel(new ManualClock(), bubbles, side,
+				side);
+		snapshot = model.acquireBubbles();
+		Random random = new Random(3);
+		for (int i = 0; i < POINTS; i++) {
+			xs[i] = random.nextFloat() * side;
+			ys[i] = random.nextFloat() * side;
+		}
+	}
+
+	@Benchmark
+	public boolean grid() {
+		int i = next++ & (POINTS - 1);
+		return model.isBubbleAt(xs[i], ys[i]);
+	}
+
+	@Benchmark
+	public boolean scan() {
+		int p = next++ & (POINTS - 1);
+		float x = xs[p], y = ys[p];
+		final CircleBuffer b = snapshot;
+		for (int i = b.count - 1; i >= 0; i--) {
+			float dx = b.x[i] - x, dy = b.y[i] - y, r = b.radius[i];
+			if (dx * dx + dy * dy <= r * r) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
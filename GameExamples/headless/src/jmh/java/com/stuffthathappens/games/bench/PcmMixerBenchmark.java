@@ -0,0 +1,66 @@
+package com.stuffthathappens.games.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.stuffthathappens.games.PcmMixer;
+
+/**
+ * Cost of mixing one 256 sample buffer, what the mixer thread does about
+ * 172 times a second at 44.1 kHz. With no voices playing this is the
+ * price of keeping the stream open between sounds. With every voice
+ * busy it is the worst case during a burst of pops.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PcmMixerBenchmark {
+	private static final int BUFFER_SAMPLES = 256;
+	private static final int VOICES = 8;
+
+	@Param({ "0", "1", "8" })
+	public int playing;
+
+	private PcmMixer mixer;
+	private final short[] out = new short[BUFFER_SAMPLES];
+
+	@Setup
+	public void setUp() {
+		// a second of something loud enough to clip when mixed
+		short[] sample = new short[44100];
+		for (int i = 0; i < sample.length; i++) {
+			sample[i] = (short) (Math.sin(i * 0.05) * 12000);
+		}
+		mixer = new PcmMixer(sample, VOICES);
+		restart();
+	}
+
+	private void restart() {
+		for (int i = 0; i < playing; i++) {
+			mixer.trigger();
+		}
+	}
+
+	@Benchmark
+	public short[] mix() {
+		if (!mixer.mix(out, BUFFER_SAMPLES) && playing > 0) {
+			// every voice ran off the end together
+			restart();
+		}
+		return out;
+	}
+}
@@ -0,0 +1,65 @@
+package com.stuffthathappens.games.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.stuffthathappens.games.BouncingBallModel;
+import com.stuffthathappens.games.support.ManualClock;
+
+/**
+ * How a physics step scales with the number of threads sharing the wall
+ * pass. Pass <code>-p threads=1,2,...,N</code> to match the machine.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PhysicsScalingBenchmark {
+
+	@Param({ "10000", "100000" })
+	public int balls;
+
+	@Param({ "1", "2", "4", "8" })
+	public int threads;
+
+	private ManualClock clock;
+	private BouncingBallModel model;
+	private double angle;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		clock = new ManualClock();
+		model = BouncingBallBenchmark.createModel(clock, balls);
+		model.setWorkerThreads(threads);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		model.dispose();
+	}
+
+	@Benchmark
+	public BouncingBallModel updatePhysics() {
+		angle += 0.01;
+		model.setAccel((float) (9.8 * Math.sin(angle)),
+				(float) (9.8 * Math.cos(angle)));
+		clock.advance(BouncingBallBenchmark.STEP_NANOS);
+		model.updatePhysics();
+		return model;
+	}
+}
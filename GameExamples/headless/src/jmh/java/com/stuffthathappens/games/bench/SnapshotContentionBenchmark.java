@@ -0,0 +1,101 @@
+package com.stuffthathappens.games.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.stuffthathappens.games.CircleBuffer;
+import com.stuffthathappens.games.TripleBuffer;
+
+/**
+ * Physics thread writing ball positions while the render thread reads
+ * them, through the {@link TripleBuffer} the model uses now and through a
+ * shared monitor like the old <code>synchronized (LOCK)</code> reads. In
+ * both, the reader walks every position, as drawing does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class SnapshotContentionBenchmark {
+
+	@Param({ "1", "100", "10000" })
+	public int balls;
+
+	private TripleBuffer<CircleBuffer> snapshots;
+
+	private final Object lock = new Object();
+	private float[] lockedX, lockedY;
+
+	private float step;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		snapshots = new TripleBuffer<CircleBuffer>(new CircleBuffer(balls),
+				new CircleBuffer(balls), new CircleBuffer(balls));
+		lockedX = new float[balls];
+		lockedY = new float[balls];
+	}
+
+	@Benchmark
+	@Group("tripleBuffer")
+	public void tripleBufferWrite() {
+		CircleBuffer b = snapshots.getBack();
+		fill(b.x, b.y, ++step);
+		b.count = balls;
+		snapshots.publish();
+	}
+
+	@Benchmark
+	@Group("tripleBuffer")
+	public float tripleBufferRead() {
+		snapshots.acquire();
+		CircleBuffer b = snapshots.getFront();
+		return sum(b.x, b.y, b.count);
+	}
+
+	@Benchmark
+	@Group("monitor")
+	public void monitorWrite() {
+		synchronized (lock) {
+			fill(lockedX, lockedY, ++step);
+		}
+	}
+
+	@Benchmark
+	@Group("monitor")
+	public float monitorRead() {
+		synchronized (lock) {
+			return sum(lockedX, lockedY, balls);
+		}
+	}
+
+	private void fill(float[] x, float[] y, float s) {
+		for (int i = 0; i < balls; i++) {
+			x[i] = s + i;
+			y[i] = s - i;
+		}
+	}
+
+	private static float sum(float[] x, float[] y, int n) {
+		float total = 0;
+		for (int i = 0; i < n; i++) {
+			total += x[i] + y[i];
+		}
+		return total;
+	}
+}
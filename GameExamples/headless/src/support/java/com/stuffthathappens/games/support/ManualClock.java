@@ -0,0 +1,20 @@
+package com.stuffthathappens.games.support;
+
+import com.stuffthathappens.games.Clock;
+
+/**
+ * A clock that only moves when told to, so a benchmark or test decides
+ * exactly how much simulated time each update covers. Safe to read from
+ * another thread, but only one thread should advance it.
+ */
+public class ManualClock implements Clock {
+	private volatile long now;
+
+	public long nanoTime() {
+		return now;
+	}
+
+	public void advance(long nanos) {
+		now += nanos;
+	}
+}
@@ -0,0 +1,65 @@
+package com.stuffthathappens.games;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.stuffthathappens.games.support.ManualClock;
+
+public class BouncingBallModelTest {
+	private static final long STEP_NANOS = 1000000000L / 120 + 1;
+
+	@Test
+	public void parallelStepsMatchSequentialBitForBit() {
+		// well over the size where the wall pass gets split up
+		final int balls = 5000;
+		float[] sequential = simulate(balls, 1);
+		for (int threads = 2; threads <= 5; threads++) {
+			float[] parallel = simulate(balls, threads);
+			assertEquals(sequential.length, parallel.length);
+			for (int i = 0; i < sequential.length; i++) {
+				assertEquals("threads=" + threads + " value " + i,
+						Float.floatToRawIntBits(sequential[i]),
+						Float.floatToRawIntBits(parallel[i]));
+			}
+		}
+	}
+
+	/**
+	 * @return x and y of every ball after a couple of seconds of turning
+	 *         gravity.
+	 */
+	private static float[] simulate(int balls, int threads) {
+		ManualClock clock = new ManualClock();
+		BouncingBallModel model = new BouncingBallModel(4, clock);
+		try {
+			model.setWorkerThreads(threads);
+			model.setSize(800, 800);
+			Random random = new Random(1);
+			for (int i = 1; i < balls; i++) {
+				model.addBall(random.nextFloat() * 800, random.nextFloat() * 800);
+			}
+			model.updatePhysics();
+			for (int i = 0; i < 240; i++) {
+				model.setAccel((float) (9.8 * Math.sin(i * 0.05)),
+						(float) (9.8 * Math.cos(i * 0.05)));
+				clock.advance(STEP_NANOS);
+				model.updatePhysics();
+			}
+
+			CircleBuffer b = model.acquireBalls();
+			assertTrue(b.count == balls);
+			float[] out = new float[b.count * 2];
+			for (int i = 0; i < b.count; i++) {
+				out[2 * i] = b.x[i];
+				out[2 * i + 1] = b.y[i];
+			}
+			return out;
+		} finally {
+			model.dispose();
+		}
+	}
+}
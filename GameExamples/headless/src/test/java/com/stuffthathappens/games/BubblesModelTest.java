@@ -0,0 +1,70 @@
+package com.stuffthathappens.games;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.stuffthathappens.games.support.ManualClock;
+
+public class BubblesModelTest {
+	private static final long MS = 1000000L;
+
+	private final ManualClock clock = new ManualClock();
+	private final BubblesModel model = new BubblesModel(clock);
+
+	@Test
+	public void tapPopsTheLaterBubbleOfABatch() {
+		// both born at once and overlapping around x=200, the second one
+		// is drawn on top. They sit in different grid cells, so the one
+		// underneath is found first.
+		model.addBubbles(new float[] { 190, 210 }, new float[] { 100, 100 },
+				2);
+		assertPopsTheRightOne();
+	}
+
+	@Test
+	public void tapPopsTheLaterBubbleAcrossTheRingWrap() {
+		// fill most of the ring and let it all pop, so the next batch
+		// wraps around to slot 0
+		float[] xs = new float[60];
+		float[] ys = new float[60];
+		model.addBubbles(xs, ys, xs.length);
+		clock.advance(2000 * MS);
+		model.updateBubbles();
+
+		// three far away, then the pair straddling the wrap
+		model.addBubbles(new float[] { 900, 900, 900, 190, 210 },
+				new float[] { 900, 900, 900, 100, 100 }, 5);
+		assertPopsTheRightOne();
+	}
+
+	@Test
+	public void snapshotIdsSurviveThePopOfTheOldest() {
+		model.addBubble(10, 10);
+		clock.advance(500 * MS);
+		model.addBubbles(new float[] { 50, 90 }, new float[] { 50, 90 }, 2);
+		model.updateBubbles();
+		CircleBuffer before = model.acquireBubbles();
+		assertEquals(3, before.count);
+		int second = before.id[1], third = before.id[2];
+		assertTrue(second - before.id[0] > 0);
+		assertTrue(third - second > 0);
+
+		// the first one runs out of time, the others keep their ids
+		clock.advance(600 * MS);
+		model.updateBubbles();
+		CircleBuffer after = model.acquireBubbles();
+		assertEquals(2, after.count);
+		assertEquals(second, after.id[0]);
+		assertEquals(third, after.id[1]);
+	}
+
+	private void assertPopsTheRightOne() {
+		assertTrue(model.popBubbleAt(200, 100));
+		// only the first one covers x=175, only the second x=225
+		assertTrue(model.isBubbleAt(175, 100));
+		assertFalse(model.isBubbleAt(225, 100));
+	}
+}
@@ -0,0 +1,75 @@
+package com.stuffthathappens.games;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CharFormatTest {
+	private final char[] out = new char[64];
+
+	@Test
+	public void longs() {
+		assertEquals("0", format(0));
+		assertEquals("7", format(7));
+		assertEquals("1234567890", format(1234567890));
+		assertEquals("-42", format(-42));
+		assertEquals("9223372036854775807", format(Long.MAX_VALUE));
+		assertEquals("-9223372036854775808", format(Long.MIN_VALUE));
+	}
+
+	@Test
+	public void floats() {
+		assertEquals("0.00", format(0f, 2));
+		assertEquals("1.50", format(1.5f, 2));
+		assertEquals("-2.25", format(-2.25f, 2));
+		assertEquals("3", format(3.4f, 0));
+		assertEquals("0.0050", format(0.005f, 4));
+		assertEquals("NaN", format(Float.NaN, 2));
+		assertEquals("Inf", format(Float.POSITIVE_INFINITY, 2));
+		assertEquals("-Inf", format(Float.NEGATIVE_INFINITY, 2));
+	}
+
+	@Test
+	public void signedFloats() {
+		assertEquals("+9.80665", formatSigned(9.80665f, 5));
+		assertEquals("-0.01234", formatSigned(-0.01234f, 5));
+		assertEquals("+0.00000", formatSigned(0f, 5));
+		assertEquals("-0.00000", formatSigned(-0f, 5));
+		assertEquals("+Inf", formatSigned(Float.POSITIVE_INFINITY, 5));
+	}
+
+	@Test
+	public void matchesStringFormatForSensorValues() {
+		Random random = new Random(17);
+		for (int i = 0; i < 100000; i++) {
+			float value = (random.nextFloat() - 0.5f) * 40;
+			assertEquals(String.format(Locale.US, "%+.5f", value),
+					formatSigned(value, 5));
+		}
+	}
+
+	@Test
+	public void appendReturnsTheNextPosition() {
+		int pos = CharFormat.append("ab", out, 0);
+		pos = CharFormat.append(12, out, pos);
+		out[pos++] = ' ';
+		pos = CharFormat.append(1.25f, 1, out, pos);
+		assertEquals("ab12 1.3", new String(out, 0, pos));
+	}
+
+	private String format(long value) {
+		return new String(out, 0, CharFormat.append(value, out, 0));
+	}
+
+	private String format(float value, int decimals) {
+		return new String(out, 0, CharFormat.append(value, decimals, out, 0));
+	}
+
+	private String formatSigned(float value, int decimals) {
+		return new String(out, 0, CharFormat.appendSigned(value, decimals,
+				out, 0));
+	}
+}
@@ -0,0 +1,155 @@
+package com.stuffthathappens.games;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DamageTrackerTest {
+	private DamageTracker tracker;
+
+	@Before
+	public void setUp() {
+		tracker = new DamageTracker(0.5f);
+		tracker.setSize(320, 480);
+		// the first frame after a resize is always full
+		assertTrue(tracker.isFullFrame());
+		tracker.frameDrawn();
+		tracker.reset();
+	}
+
+	@Test
+	public void nothingAddedIsEmpty() {
+		assertTrue(tracker.isEmpty());
+		assertFalse(tracker.isFullFrame());
+	}
+
+	@Test
+	public void boundsCoverEveryArea() {
+		tracker.add(10, 20, 30, 40);
+		tracker.add(100, 5, 110, 25);
+		assertFalse(tracker.isEmpty());
+		assertBounds(10, 5, 110, 40);
+	}
+
+	@Test
+	public void areasAreClippedToTheScreen() {
+		tracker.add(-10, -10, 5, 5);
+		assertBounds(0, 0, 5, 5);
+		tracker.reset();
+		tracker.add(315, 475, 400, 500);
+		assertBounds(315, 475, 320, 480);
+		tracker.reset();
+		tracker.add(-20, 10, -5, 20);
+		assertTrue(tracker.isEmpty());
+	}
+
+	@Test
+	public void largeDamageBecomesAFullFrame() {
+		tracker.add(0, 0, 10, 10);
+		tracker.add(310, 470, 320, 480);
+		assertTrue(tracker.isFullFrame());
+		assertFalse(tracker.isEmpty());
+		assertBounds(0, 0, 320, 480);
+
+		// stays full until drawn
+		tracker.reset();
+		assertTrue(tracker.isFullFrame());
+		tracker.frameDrawn();
+		tracker.reset();
+		assertTrue(tracker.isEmpty());
+	}
+
+	@Test
+	public void invalidateAllMakesAFullFrame() {
+		tracker.invalidateAll();
+		tracker.reset();
+		assertTrue(tracker.isFullFrame());
+		assertBounds(0, 0, 320, 480);
+	}
+
+	@Test
+	public void unchangedCirclesAreSkipped() {
+		CircleBuffer before = circles(3);
+		CircleBuffer after = circles(3);
+		tracker.addChanges(before, after);
+		assertTrue(tracker.isEmpty());
+	}
+
+	@Test
+	public void movedCircleMarksOldAndNewPlace() {
+		CircleBuffer before = circles(3);
+		CircleBuffer after = circles(3);
+		after.x[1] += 10;
+		tracker.addChanges(before, after);
+		int slack = DamageTracker.CIRCLE_SLACK;
+		// circle 1 is at (60, 60) radius 4, now at (70, 60)
+		assertBounds(56 - slack, 56 - slack, 74 + slack + 1, 64 + slack + 1);
+	}
+
+	@Test
+	public void recoloredOrResizedCircleIsMarked() {
+		CircleBuffer before = circles(3);
+		CircleBuffer after = circles(3);
+		after.color[0] = 0xff00ff00;
+		tracker.addChanges(before, after);
+		assertFalse(tracker.isEmpty());
+
+		tracker.reset();
+		after = circles(3);
+		after.radius[2] = 5;
+		tracker.addChanges(before, after);
+		assertFalse(tracker.isEmpty());
+	}
+
+	@Test
+	public void addedAndRemovedCirclesAreMarked() {
+		tracker.addChanges(circles(2), circles(3));
+		int slack = DamageTracker.CIRCLE_SLACK;
+		assertBounds(96 - slack, 96 - slack, 104 + slack + 1, 104 + slack + 1);
+
+		tracker.reset();
+		tracker.addChanges(circles(3), circles(2));
+		assertBounds(96 - slack, 96 - slack, 104 + slack + 1, 104 + slack + 1);
+	}
+
+	@Test
+	public void removingTheFirstCircleOnlyMarksThatOne() {
+		CircleBuffer before = circles(4);
+		CircleBuffer after = new CircleBuffer(3);
+		for (int i = 0; i < 3; i++) {
+			after.x[i] = before.x[i + 1];
+			after.y[i] = before.y[i + 1];
+			after.radius[i] = before.radius[i + 1];
+			after.color[i] = before.color[i + 1];
+			after.id[i] = before.id[i + 1];
+		}
+		after.count = 3;
+		tracker.addChanges(before, after);
+		int slack = DamageTracker.CIRCLE_SLACK;
+		// only circle 0, at (20, 20) radius 4
+		assertBounds(16 - slack, 16 - slack, 24 + slack + 1, 24 + slack + 1);
+	}
+
+	private void assertBounds(int l, int t, int r, int b) {
+		assertEquals("left", l, tracker.getBoundsLeft());
+		assertEquals("top", t, tracker.getBoundsTop());
+		assertEquals("right", r, tracker.getBoundsRight());
+		assertEquals("bottom", b, tracker.getBoundsBottom());
+	}
+
+	// circles of radius 4 on a diagonal, 20, 60, 100...
+	private static CircleBuffer circles(int n) {
+		CircleBuffer c = new CircleBuffer(n);
+		for (int i = 0; i < n; i++) {
+			c.x[i] = c.y[i] = 20 + 40 * i;
+			c.radius[i] = 4;
+			c.color[i] = 0xffff0000;
+			c.id[i] = i;
+		}
+		c.count = n;
+		return c;
+	}
+}
@@ -0,0 +1,105 @@
+package com.stuffthathappens.games;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.stuffthathappens.games.support.ManualClock;
+
+public class HapticDispatcherTest {
+	private static final long MS = 1000000L;
+	private static final long WINDOW_MS = 50;
+
+	private final ManualClock clock = new ManualClock();
+	private final RecordingHaptics haptics = new RecordingHaptics();
+	private final HapticDispatcher dispatcher = new HapticDispatcher(haptics,
+			WINDOW_MS, clock);
+
+	@After
+	public void stopDispatcher() {
+		dispatcher.stop();
+	}
+
+	@Test
+	public void bouncesInsideTheWindowAreMergedIntoOne() throws Exception {
+		dispatcher.start();
+
+		// nothing before it, so the first bounce is felt straight away
+		dispatcher.post(4);
+		awaitVibrations(1);
+		assertEquals(12, haptics.get(0));
+
+		// the clock hasn't moved, so these wait for the window to end
+		dispatcher.post(8);
+		dispatcher.post(6);
+		awaitMerged(1);
+		Thread.sleep(2 * WINDOW_MS);
+		assertEquals(1, dispatcher.getVibrationCount());
+
+		// one vibration for both, as long as the harder one
+		clock.advance(WINDOW_MS * MS);
+		awaitVibrations(2);
+		assertEquals(14, haptics.get(1));
+		assertEquals(3, dispatcher.getPostedCount());
+		assertEquals(1, dispatcher.getMergedCount());
+		assertEquals(0, dispatcher.getDroppedCount());
+	}
+
+	@Test
+	public void hardImpactsAreCapped() throws Exception {
+		dispatcher.start();
+		dispatcher.post(1000);
+		awaitVibrations(1);
+		assertEquals(40, haptics.get(0));
+	}
+
+	@Test
+	public void fullRingDropsEvents() {
+		// not started, so nothing drains the ring
+		for (int i = 0; i < 70; i++) {
+			dispatcher.post(1);
+		}
+		assertEquals(64, dispatcher.getPostedCount());
+		assertEquals(6, dispatcher.getDroppedCount());
+		assertEquals(0, dispatcher.getMergedCount());
+	}
+
+	private void awaitVibrations(long n) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (dispatcher.getVibrationCount() < n) {
+			if (System.currentTimeMillis() > deadline) {
+				fail("expected " + n + " vibrations, got "
+						+ dispatcher.getVibrationCount());
+			}
+			Thread.sleep(1);
+		}
+	}
+
+	private void awaitMerged(long n) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (dispatcher.getMergedCount() < n) {
+			if (System.currentTimeMillis() > deadline) {
+				fail("expected " + n + " merged, got "
+						+ dispatcher.getMergedCount());
+			}
+			Thread.sleep(1);
+		}
+	}
+
+	private static class RecordingHaptics implements Haptics {
+		private final List<Long> durations = new ArrayList<Long>();
+
+		public synchronized void vibrate(long milliseconds) {
+			durations.add(milliseconds);
+		}
+
+		synchronized long get(int i) {
+			return durations.get(i);
+		}
+	}
+}
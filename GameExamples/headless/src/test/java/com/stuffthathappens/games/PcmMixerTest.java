@@ -0,0 +1,197 @@
+package com.stuffthathappens.games;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PcmMixerTest {
+	private static final int RATE = 44100;
+	private static final int BUFFER = 256;
+
+	private File file;
+	private final short[] buffer = new short[BUFFER];
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("mix", ".wav");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void soundStartsWithTheNextBuffer() throws IOException {
+		short[] sample = ramp(600, 1);
+		PcmMixer mixer = new PcmMixer(sample, 4);
+		WavFileSink sink = new WavFileSink(file, RATE);
+		mixInto(mixer, sink, 3);
+		mixer.trigger();
+		mixInto(mixer, sink, 4);
+		sink.close();
+
+		short[] out = readWav(file);
+		assertEquals(7 * BUFFER, out.length);
+		// silence, then the sample exactly, then silence again
+		for (int i = 0; i < out.length; i++) {
+			int s = i - 3 * BUFFER;
+			int expected = s >= 0 && s < sample.length ? sample[s] : 0;
+			assertEquals("sample " + i, expected, out[i]);
+		}
+		assertEquals(1, mixer.getStartedCount());
+		assertEquals(0, mixer.getStolenCount());
+	}
+
+	@Test
+	public void overlappingSoundsAreSummedAndClipped() throws IOException {
+		short[] sample = constant(BUFFER * 4, 20000);
+		PcmMixer mixer = new PcmMixer(sample, 4);
+		WavFileSink sink = new WavFileSink(file, RATE);
+		mixer.trigger();
+		mixInto(mixer, sink, 1);
+		mixer.trigger();
+		mixInto(mixer, sink, 1);
+		sink.close();
+
+		short[] out = readWav(file);
+		assertEquals(20000, out[0]);
+		// two voices add up past what 16 bits can hold
+		assertEquals(Short.MAX_VALUE, out[BUFFER]);
+	}
+
+	@Test
+	public void busyVoicesAreStolenOldestFirst() throws IOException {
+		// each copy is louder the further in it is, so the output shows
+		// which voices are playing
+		short[] sample = ramp(BUFFER * 8, 1);
+		PcmMixer mixer = new PcmMixer(sample, 2);
+		WavFileSink sink = new WavFileSink(file, RATE);
+		mixer.trigger();
+		mixInto(mixer, sink, 2);
+		mixer.trigger();
+		mixInto(mixer, sink, 1);
+		// both voices busy, the one 3 buffers in makes room
+		mixer.trigger();
+		assertTrue(mixer.mix(buffer, BUFFER));
+		sink.write(buffer, BUFFER);
+		sink.close();
+
+		assertEquals(3, mixer.getStartedCount());
+		assertEquals(1, mixer.getStolenCount());
+		short[] out = readWav(file);
+		// the second copy is 1 buffer in, the new one just started
+		int i = 3 * BUFFER;
+		assertEquals(sample[BUFFER] + sample[0], out[i]);
+		assertEquals(sample[BUFFER + 10] + sample[10], out[i + 10]);
+	}
+
+	@Test
+	public void triggersBeyondTheVoicesAreCountedAsStolen() {
+		PcmMixer mixer = new PcmMixer(ramp(BUFFER, 1), 2);
+		for (int i = 0; i < 5; i++) {
+			mixer.trigger();
+		}
+		mixer.mix(buffer, BUFFER);
+		assertEquals(2, mixer.getStartedCount());
+		assertEquals(3, mixer.getStolenCount());
+		// the sample is exactly one buffer long, so nothing is left
+		assertFalse(mixer.mix(buffer, BUFFER));
+	}
+
+	@Test
+	public void soundEffectStreamsToTheSink() throws Exception {
+		short[] sample = ramp(BUFFER * 2, 7);
+		MixerSoundEffect effect = new MixerSoundEffect(sample,
+				new WavFileSink(file, RATE));
+		effect.play();
+		long deadline = System.nanoTime() + 5000000000L;
+		while (effect.getMixer().getStartedCount() == 0
+				&& System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		// let the rest of the sound get written
+		Thread.sleep(50);
+		effect.release();
+		assertNull(effect.getFailure());
+
+		short[] out = readWav(file);
+		assertEquals(0, out.length % BUFFER);
+		int start = 0;
+		while (start < out.length && out[start] == 0) {
+			start++;
+		}
+		// sounds always start on a buffer boundary
+		assertEquals(0, start % BUFFER);
+		for (int i = 0; i < sample.length; i++) {
+			assertEquals(sample[i], out[start + i]);
+		}
+		assertEquals(0, out[start + sample.length]);
+	}
+
+	private void mixInto(PcmMixer mixer, AudioSink sink, int buffers)
+			throws IOException {
+		for (int i = 0; i < buffers; i++) {
+			mixer.mix(buffer, BUFFER);
+			sink.write(buffer, BUFFER);
+		}
+	}
+
+	private static short[] ramp(int length, int step) {
+		short[] s = new short[length];
+		for (int i = 0; i < length; i++) {
+			s[i] = (short) (1 + i * step % 10000);
+		}
+		return s;
+	}
+
+	private static short[] constant(int length, int value) {
+		short[] s = new short[length];
+		for (int i = 0; i < length; i++) {
+			s[i] = (short) value;
+		}
+		return s;
+	}
+
+	/**
+	 * @return the samples in a mono 16 bit WAV file, after checking the
+	 *         header says so.
+	 */
+	private static short[] readWav(File f) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(f, "r");
+		try {
+			byte[] bytes = new byte[(int) in.length()];
+			in.readFully(bytes);
+			assertEquals("RIFF", new String(bytes, 0, 4, "US-ASCII"));
+			assertEquals("WAVE", new String(bytes, 8, 4, "US-ASCII"));
+			assertEquals(1, littleShort(bytes, 22));
+			assertEquals(RATE, littleShort(bytes, 24) & 0xffff
+					| littleShort(bytes, 26) << 16);
+			assertEquals(16, littleShort(bytes, 34));
+			int dataBytes = littleShort(bytes, 40) & 0xffff
+					| littleShort(bytes, 42) << 16;
+			assertEquals(bytes.length - 44, dataBytes);
+
+			short[] samples = new short[dataBytes / 2];
+			for (int i = 0; i < samples.length; i++) {
+				samples[i] = (short) littleShort(bytes, 44 + 2 * i);
+			}
+			return samples;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static int littleShort(byte[] b, int pos) {
+		return (short) ((b[pos] & 0xff) | (b[pos + 1] << 8));
+	}
+}
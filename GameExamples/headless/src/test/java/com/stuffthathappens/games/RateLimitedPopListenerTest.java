@@ -0,0 +1,69 @@
+package com.stuffthathappens.games;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class RateLimitedPopListenerTest {
+	private static final long MS = 1000000L;
+
+	private int received;
+	private final PopListener counter = new PopListener() {
+		public void onPops(PopEvents batch) {
+			received += batch.count;
+		}
+	};
+
+	@Test
+	public void burstThenSustainedRate() {
+		RateLimitedPopListener limiter = new RateLimitedPopListener(counter,
+				10, 3);
+		// 5 at once, only the burst gets through
+		limiter.onPops(batch(0, 0, 0, 0, 0, 0));
+		assertEquals(3, received);
+		assertEquals(2, limiter.getDroppedCount());
+
+		// 100ms at 10 per second is one more
+		limiter.onPops(batch(100 * MS, 100 * MS, 100 * MS));
+		assertEquals(4, received);
+
+		// a long quiet spell only refills up to the burst
+		limiter.onPops(batch(10000 * MS, 1, 2, 3, 4, 5));
+		assertEquals(7, received);
+		assertEquals(7, limiter.getDeliveredCount());
+	}
+
+	@Test
+	public void popTimesOutOfOrderDoNotDrainTokens() {
+		RateLimitedPopListener limiter = new RateLimitedPopListener(counter,
+				10, 2);
+		limiter.onPops(batch(1000 * MS, 1000 * MS));
+		// a tap at the update time, then a bubble that ran out of time
+		// earlier than the last batch. Half a second at 10 per second
+		// refills the whole burst.
+		limiter.onPops(batch(1500 * MS, 1500 * MS, 900 * MS));
+		assertEquals(3, received);
+		assertEquals(0, limiter.getDroppedCount());
+	}
+
+	@Test
+	public void updateTimeGoingBackwardsIsIgnored() {
+		RateLimitedPopListener limiter = new RateLimitedPopListener(counter,
+				10, 1);
+		limiter.onPops(batch(1000 * MS, 1000 * MS));
+		limiter.onPops(batch(500 * MS, 500 * MS));
+		// no refill from the earlier time, and no debt either
+		limiter.onPops(batch(1100 * MS, 1100 * MS));
+		assertEquals(2, received);
+		assertEquals(1, limiter.getDroppedCount());
+	}
+
+	private static PopEvents batch(long updateNanos, long... popTimes) {
+		PopEvents b = new PopEvents();
+		for (long t : popTimes) {
+			b.add(1, 2, 3, t);
+		}
+		b.updateNanos = updateNanos;
+		return b;
+	}
+}
@@ -0,0 +1,93 @@
+package com.stuffthathappens.games;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.stuffthathappens.games.support.ManualClock;
+
+public class SaveStateTest {
+
+	@Test
+	public void ballsSurviveARoundTrip() {
+		ManualClock clock = new ManualClock();
+		BouncingBallModel model = new BouncingBallModel(4, clock);
+		BouncingBallModel copy = new BouncingBallModel(4, clock);
+		try {
+			model.setSize(400, 400);
+			copy.setSize(400, 400);
+			Random random = new Random(11);
+			for (int i = 1; i < 500; i++) {
+				model.addBall(random.nextFloat() * 400, random.nextFloat() * 400);
+			}
+			model.setAccel(0, 9.8f);
+			model.updatePhysics();
+			for (int i = 0; i < 30; i++) {
+				clock.advance(10000000);
+				model.updatePhysics();
+			}
+
+			ByteBuffer state = model.saveState();
+			assertEquals(12 + 500 * 20, state.remaining());
+			copy.restoreState(state.duplicate().order(state.order()));
+			// positions, velocities and radii all come back
+			assertEquals(state, copy.saveState());
+			assertEquals(500, copy.acquireBalls().count);
+		} finally {
+			model.dispose();
+			copy.dispose();
+		}
+	}
+
+	@Test
+	public void bubblesSurviveARoundTrip() {
+		ManualClock clock = new ManualClock();
+		BubblesModel model = new BubblesModel(clock);
+		model.setSize(400, 400);
+		Random random = new Random(13);
+		for (int i = 0; i < 300; i++) {
+			model.addBubble(random.nextFloat() * 400, random.nextFloat() * 400);
+			clock.advance(1000000);
+		}
+		model.updateBubbles();
+
+		ByteBuffer state = model.saveState();
+		assertEquals(12 + 300 * 16, state.remaining());
+
+		BubblesModel copy = new BubblesModel(clock);
+		copy.setSize(400, 400);
+		copy.restoreState(state);
+		copy.updateBubbles();
+		assertSameCircles(model.acquireBubbles(), copy.acquireBubbles());
+	}
+
+	@Test
+	public void foreignStateIsRejected() {
+		BubblesModel bubbles = new BubblesModel(new ManualClock());
+		ByteBuffer balls;
+		BouncingBallModel model = new BouncingBallModel(4, new ManualClock());
+		try {
+			balls = model.saveState();
+		} finally {
+			model.dispose();
+		}
+		try {
+			bubbles.restoreState(balls);
+			fail("restored a ball state into bubbles");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	private static void assertSameCircles(CircleBuffer a, CircleBuffer b) {
+		assertEquals(a.count, b.count);
+		for (int i = 0; i < a.count; i++) {
+			assertEquals(a.x[i], b.x[i], 0);
+			assertEquals(a.y[i], b.y[i], 0);
+			assertEquals(a.radius[i], b.radius[i], 0);
+		}
+	}
+}
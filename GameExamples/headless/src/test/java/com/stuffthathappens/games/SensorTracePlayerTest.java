@@ -0,0 +1,77 @@
+package com.stuffthathappens.games;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SensorTracePlayerTest {
+	private static final int ACCELEROMETER = 2;
+	private static final long SAMPLE_NANOS = 20000000L;
+	private static final long FRAME_NANOS = 16666667L;
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("trace", ".bin");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void smallTiltDoesNotWakeASettledBall() throws IOException {
+		// lying flat long enough to settle, then tilted by less than what
+		// wakes the live game, so the ball stays put as it does there
+		writeTrace(12, 4, 0.4f);
+		assertEquals(160, replay(), 0);
+	}
+
+	@Test
+	public void bigTiltWakesASettledBall() throws IOException {
+		writeTrace(12, 4, 3f);
+		float x = replay();
+		assertTrue("ball should have rolled, but is at " + x, x > 170);
+	}
+
+	/**
+	 * Writes flatSeconds of no tilt, then tiltSeconds tilted by tiltX.
+	 */
+	private void writeTrace(int flatSeconds, int tiltSeconds, float tiltX)
+			throws IOException {
+		SensorTraceRecorder recorder = new SensorTraceRecorder(file);
+		long t = 0;
+		for (long end = flatSeconds * 1000000000L; t < end; t += SAMPLE_NANOS) {
+			recorder.record(t, ACCELEROMETER, 0, 0, 9.8f);
+		}
+		for (long end = t + tiltSeconds * 1000000000L; t < end; t += SAMPLE_NANOS) {
+			recorder.record(t, ACCELEROMETER, tiltX, 0, 9.8f);
+		}
+		recorder.close();
+	}
+
+	/**
+	 * @return the ball's x at the end of the trace. It starts at rest in
+	 *         the middle of a 320 by 480 field.
+	 */
+	private float replay() throws IOException {
+		SensorTracePlayer player = new SensorTracePlayer(file);
+		BouncingBallModel model = new BouncingBallModel(10, player);
+		try {
+			model.setSize(320, 480);
+			model.moveBall(160, 240);
+			player.replay(model, FRAME_NANOS);
+			return model.acquireBalls().x[0];
+		} finally {
+			model.dispose();
+		}
+	}
+}
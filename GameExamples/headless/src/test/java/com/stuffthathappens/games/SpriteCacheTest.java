@@ -0,0 +1,176 @@
+package com.stuffthathappens.games;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SpriteCacheTest {
+
+	// a sprite is just its key, and takes radius * 100 bytes
+	private static class Sprite {
+		final int radius, color;
+
+		Sprite(int radius, int color) {
+			this.radius = radius;
+			this.color = color;
+		}
+	}
+
+	private static class FakeFactory implements SpriteCache.SpriteFactory<Sprite> {
+		final List<Sprite> created = new ArrayList<Sprite>();
+		final List<Sprite> released = new ArrayList<Sprite>();
+
+		public Sprite create(int radius, int color) {
+			Sprite s = new Sprite(radius, color);
+			created.add(s);
+			return s;
+		}
+
+		public int getByteCount(Sprite sprite) {
+			return sprite.radius * 100;
+		}
+
+		public void release(Sprite sprite) {
+			released.add(sprite);
+		}
+	}
+
+	private final FakeFactory factory = new FakeFactory();
+
+	@Test
+	public void secondLookupIsAHit() {
+		SpriteCache<Sprite> cache = new SpriteCache<Sprite>(factory, 4, 10000, 1);
+		Sprite s = cache.get(5, 0xffff0000);
+		assertEquals(5, s.radius);
+		assertEquals(0xffff0000, s.color);
+		assertSame(s, cache.get(5, 0xffff0000));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, factory.created.size());
+	}
+
+	@Test
+	public void colorAndRadiusAreBothPartOfTheKey() {
+		SpriteCache<Sprite> cache = new SpriteCache<Sprite>(factory, 4, 10000, 1);
+		Sprite red = cache.get(5, 0xffff0000);
+		assertNotSame(red, cache.get(5, 0xff00ff00));
+		assertNotSame(red, cache.get(6, 0xffff0000));
+		assertEquals(3, cache.getMissCount());
+		assertEquals(3, cache.getSpriteCount());
+		assertEquals(1600, cache.getByteCount());
+	}
+
+	@Test
+	public void radiiSnapToBuckets() {
+		SpriteCache<Sprite> cache = new SpriteCache<Sprite>(factory, 4, 10000, 4);
+		assertEquals(8, cache.bucketRadius(7.9f));
+		assertEquals(8, cache.bucketRadius(9.9f));
+		assertEquals(12, cache.bucketRadius(10.1f));
+		// never smaller than a pixel
+		assertEquals(1, cache.bucketRadius(0.2f));
+
+		Sprite s = cache.get(7.9f, 1);
+		assertSame(s, cache.get(9.2f, 1));
+		assertEquals(8, s.radius);
+	}
+
+	@Test
+	public void leastRecentlyUsedIsEvictedByCount() {
+		SpriteCache<Sprite> cache = new SpriteCache<Sprite>(factory, 3, 10000, 1);
+		Sprite a = cache.get(1, 1);
+		Sprite b = cache.get(2, 1);
+		cache.get(3, 1);
+		// a is now newer than b
+		cache.get(1, 1);
+		cache.get(4, 1);
+
+		assertEquals(1, factory.released.size());
+		assertSame(b, factory.released.get(0));
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(3, cache.getSpriteCount());
+		assertSame(a, cache.get(1, 1));
+	}
+
+	@Test
+	public void spritesAreEvictedToStayInBudget() {
+		SpriteCache<Sprite> cache = new SpriteCache<Sprite>(factory, 10, 1000, 1);
+		Sprite a = cache.get(3, 1);
+		Sprite b = cache.get(4, 1);
+		assertEquals(700, cache.getByteCount());
+		// 700 + 500 is over, so a goes
+		cache.get(5, 1);
+		assertEquals(1, factory.released.size());
+		assertSame(a, factory.released.get(0));
+		assertEquals(900, cache.getByteCount());
+		assertSame(b, cache.get(4, 1));
+	}
+
+	@Test
+	public void newSpriteIsKeptEvenIfOverBudget() {
+		SpriteCache<Sprite> cache = new SpriteCache<Sprite>(factory, 10, 1000, 1);
+		Sprite small = cache.get(2, 1);
+		Sprite huge = cache.get(20, 1);
+		assertEquals(1, cache.getSpriteCount());
+		assertSame(small, factory.released.get(0));
+		assertSame(huge, cache.get(20, 1));
+		assertEquals(2000, cache.getByteCount());
+	}
+
+	@Test
+	public void clearReleasesEverything() {
+		SpriteCache<Sprite> cache = new SpriteCache<Sprite>(factory, 8, 10000, 1);
+		for (int r = 1; r <= 5; r++) {
+			cache.get(r, 1);
+		}
+		cache.clear();
+		assertEquals(0, cache.getSpriteCount());
+		assertEquals(0, cache.getByteCount());
+		assertEquals(5, factory.released.size());
+		assertTrue(factory.released.containsAll(factory.created));
+
+		// still usable afterwards
+		cache.get(1, 1);
+		assertEquals(1, cache.getSpriteCount());
+	}
+
+	@Test
+	public void matchesAReferenceLruCache() {
+		// lots of evictions with keys that collide in the table, to
+		// exercise removing from the middle of probe chains
+		final int max = 16;
+		SpriteCache<Sprite> cache = new SpriteCache<Sprite>(factory, max,
+				Long.MAX_VALUE, 1);
+		Map<Long, Sprite> reference = new LinkedHashMap<Long, Sprite>(16,
+				0.75f, true);
+		Random random = new Random(7);
+		for (int i = 0; i < 20000; i++) {
+			int radius = 1 + random.nextInt(24);
+			int color = random.nextInt(3);
+			Long key = Long.valueOf(((long) radius << 32) | color);
+			Sprite expected = reference.get(key);
+			Sprite s = cache.get(radius, color);
+			if (expected != null) {
+				assertSame(expected, s);
+			} else {
+				reference.put(key, s);
+				if (reference.size() > max) {
+					Long eldest = reference.keySet().iterator().next();
+					Sprite evicted = reference.remove(eldest);
+					assertSame(evicted,
+							factory.released.get(factory.released.size() - 1));
+				}
+			}
+			assertEquals(reference.size(), cache.getSpriteCount());
+		}
+		assertEquals(factory.created.size() - max, factory.released.size());
+	}
+}
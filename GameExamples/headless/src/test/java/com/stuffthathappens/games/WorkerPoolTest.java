@@ -0,0 +1,53 @@
+package com.stuffthathappens.games;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class WorkerPoolTest {
+
+	@Test
+	public void everyIndexIsCoveredOnce() {
+		WorkerPool pool = new WorkerPool(3);
+		try {
+			final int[] seen = new int[1000];
+			pool.run(new WorkerPool.RangeTask() {
+				public void run(int chunk, int from, int to) {
+					for (int i = from; i < to; i++) {
+						seen[i]++;
+					}
+				}
+			}, seen.length);
+			for (int i = 0; i < seen.length; i++) {
+				assertEquals("index " + i, 1, seen[i]);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void emptyChunksStillRun() {
+		// more threads than indexes, so some chunks get nothing to do but
+		// still have to overwrite what they wrote last time
+		WorkerPool pool = new WorkerPool(4);
+		try {
+			final int[] calls = new int[4];
+			final int[] covered = new int[4];
+			WorkerPool.RangeTask task = new WorkerPool.RangeTask() {
+				public void run(int chunk, int from, int to) {
+					calls[chunk]++;
+					covered[chunk] = to - from;
+				}
+			};
+			pool.run(task, 8);
+			pool.run(task, 2);
+			for (int chunk = 0; chunk < 4; chunk++) {
+				assertEquals("chunk " + chunk, 2, calls[chunk]);
+			}
+			assertEquals(2, covered[0] + covered[1] + covered[2] + covered[3]);
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -4,6 +4,9 @@ import static android.hardware.SensorManager.DATA_X;
 import static android.hardware.SensorManager.DATA_Y;
 import static android.hardware.SensorManager.DATA_Z;
 import static android.hardware.SensorManager.SENSOR_ACCELEROMETER;
+import static android.hardware.SensorManager.SENSOR_DELAY_FASTEST;
+import static android.hardware.SensorManager.SENSOR_DELAY_GAME;
+import static android.hardware.SensorManager.SENSOR_DELAY_NORMAL;
 import static android.hardware.SensorManager.SENSOR_DELAY_UI;
 import static android.hardware.SensorManager.SENSOR_STATUS_ACCURACY_HIGH;
 import static android.hardware.SensorManager.SENSOR_STATUS_ACCURACY_LOW;
@@ -13,62 +16,107 @@ import android.app.Activity;
 import android.hardware.SensorListener;
 import android.hardware.SensorManager;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.widget.Button;
 import android.widget.TextView;
 
 /**
- * Displays values from the accelerometer sensor.
- * 
+ * Displays values from the accelerometer sensor, along with how often
+ * samples really arrive at each sensor rate and how noisy they are.
+ *
  * @author Eric M. Burke
  */
 public class Accel extends Activity implements SensorListener, OnClickListener {
+	private static final String TAG = "Accel";
+
+	// the rates the rate button cycles through, and their labels
+	private static final int[] DELAYS = { SENSOR_DELAY_GAME, SENSOR_DELAY_UI,
+			SENSOR_DELAY_NORMAL, SENSOR_DELAY_FASTEST };
+	private static final int[] DELAY_LABELS = { R.string.delay_game,
+			R.string.delay_ui, R.string.delay_normal, R.string.delay_fastest };
+
+	// a window is still if no axis wobbles more than this, in m/s^2
+	private static final float STILL_STD_DEV = 0.15f;
+	// the stats lines don't need to change with every sample
+	private static final long STATS_REFRESH_NANOS = 250000000L;
+
 	private SensorManager sensorMgr;
 	private TextView accuracyLabel;
 	private TextView xLabel, yLabel, zLabel;
-	private Button calibrateButton;
-	
+	private TextView rateLabel, noiseLabel;
+	private Button calibrateButton, delayButton;
+
 	private float x, y, z;
-	
-	// deltas for calibration
-	private float cx, cy, cz;
-	
-	private long lastUpdate = -1;
-	
+
+	// deltas for calibration, kept in the preferences for the games
+	private AccelCalibration calibration;
+	// set by the calibrate button, the next still window is used
+	private boolean calibrating;
+	private long calibrateClicked;
+
+	private int delay;
+	private final SensorStats stats = new SensorStats(STILL_STD_DEV);
+	private long lastStatsRefresh;
+
+	// reused for every update, so showing each sample makes no garbage.
+	// Each label gets its own, since a TextView may hang on to the array.
+	private static final int LINE_LENGTH = 64;
+	private final char[] xText = new char[LINE_LENGTH];
+	private final char[] yText = new char[LINE_LENGTH];
+	private final char[] zText = new char[LINE_LENGTH];
+	private final char[] rateText = new char[LINE_LENGTH];
+	private final char[] noiseText = new char[LINE_LENGTH];
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);        
+        super.onCreate(savedInstanceState);
         setContentView(R.layout.accel);
         accuracyLabel = (TextView) findViewById(R.id.accuracy_label);
         xLabel = (TextView) findViewById(R.id.x_label);
         yLabel = (TextView) findViewById(R.id.y_label);
         zLabel = (TextView) findViewById(R.id.z_label);
+        rateLabel = (TextView) findViewById(R.id.rate_label);
+        noiseLabel = (TextView) findViewById(R.id.noise_label);
         calibrateButton = (Button) findViewById(R.id.calibrate_button);
         calibrateButton.setOnClickListener(this);
+        delayButton = (Button) findViewById(R.id.delay_button);
+        delayButton.setOnClickListener(this);
     }
 
 	@Override
 	protected void onPause() {
 		super.onPause();
-		
+
 		sensorMgr.unregisterListener(this, SENSOR_ACCELEROMETER);
 		sensorMgr = null;
-		
-		cx = 0;
-		cy = 0;
-		cz = 0;
+
+		logStats();
+
+		if (calibrating) {
+			calibrating = false;
+			calibrateButton.setText(R.string.calibrate);
+		}
 	}
 
 	@Override
 	protected void onResume() {
 		super.onResume();
-		
+
+		calibration = AccelCalibration.load(this);
+
 		sensorMgr = (SensorManager) getSystemService(SENSOR_SERVICE);
-		boolean accelSupported = sensorMgr.registerListener(this, 
+		register();
+	}
+
+	private void register() {
+		stats.reset();
+		delayButton.setText(DELAY_LABELS[delay]);
+		boolean accelSupported = sensorMgr.registerListener(this,
 				SENSOR_ACCELEROMETER,
-				SENSOR_DELAY_UI);
-		
+				DELAYS[delay]);
+
 		if (!accelSupported) {
 			// on accelerometer on this device
 			sensorMgr.unregisterListener(this, SENSOR_ACCELEROMETER);
@@ -78,8 +126,6 @@ public class Accel extends Activity implements SensorListener, OnClickListener {
 
 	// from the android.hardware.SensorListener interface
 	public void onAccuracyChanged(int sensor, int accuracy) {
-		// this method is called very rarely, so we don't have to
-		// limit our updates as we do in onSensorChanged(...)
 		if (sensor == SENSOR_ACCELEROMETER) {
 			switch (accuracy) {
 			case SENSOR_STATUS_UNRELIABLE:
@@ -101,29 +147,102 @@ public class Accel extends Activity implements SensorListener, OnClickListener {
 	// from the android.hardware.SensorListener interface
 	public void onSensorChanged(int sensor, float[] values) {
 		if (sensor == SENSOR_ACCELEROMETER) {
-			long curTime = System.currentTimeMillis();
-			// only allow one update every 100ms, otherwise updates
-			// come way too fast and the phone gets bogged down
-			// with garbage collection
-			if (lastUpdate == -1 || (curTime - lastUpdate) > 100) {
-				lastUpdate = curTime;
-				
-				x = values[DATA_X];
-				y = values[DATA_Y];
-				z = values[DATA_Z];
-				
-				xLabel.setText(String.format("X: %+2.5f (%+2.5f)", (x+cx), cx));
-				yLabel.setText(String.format("Y: %+2.5f (%+2.5f)", (y+cy), cy));
-				zLabel.setText(String.format("Z: %+2.5f (%+2.5f)", (z+cz), cz));
+			long now = System.nanoTime();
+			x = values[DATA_X];
+			y = values[DATA_Y];
+			z = values[DATA_Z];
+			stats.sample(now, x, y, z);
+
+			if (calibrating && stats.getStillStart() > calibrateClicked) {
+				calibrate();
 			}
+
+			AccelCalibration c = calibration;
+			setLabel(xLabel, xText, "X: ", x + c.x, c.x);
+			setLabel(yLabel, yText, "Y: ", y + c.y, c.y);
+			setLabel(zLabel, zText, "Z: ", z + c.z, c.z);
+
+			if (now - lastStatsRefresh >= STATS_REFRESH_NANOS) {
+				lastStatsRefresh = now;
+				showStats();
+			}
+		}
+	}
+
+	// same as String.format("X: %+2.5f (%+2.5f)", value, delta) without
+	// the garbage
+	private static void setLabel(TextView label, char[] text, String prefix,
+			float value, float delta) {
+		int len = CharFormat.append(prefix, text, 0);
+		len = CharFormat.appendSigned(value, 5, text, len);
+		len = CharFormat.append(" (", text, len);
+		len = CharFormat.appendSigned(delta, 5, text, len);
+		text[len++] = ')';
+		label.setText(text, 0, len);
+	}
+
+	// like "50.0/s gap 20.0 21.5 41.0ms" (p50, p99 and max) and
+	// "noise 0.0120 0.0104 0.0151"
+	private void showStats() {
+		Histogram gaps = stats.getIntervals();
+		int len = CharFormat.append(stats.getRate(), 1, rateText, 0);
+		len = CharFormat.append("/s gap ", rateText, len);
+		len = appendMillis(gaps.getPercentile(0.5), rateText, len);
+		rateText[len++] = ' ';
+		len = appendMillis(gaps.getPercentile(0.99), rateText, len);
+		rateText[len++] = ' ';
+		len = appendMillis(gaps.getMax(), rateText, len);
+		len = CharFormat.append("ms", rateText, len);
+		rateLabel.setText(rateText, 0, len);
+
+		if (stats.getStillStart() >= 0) {
+			len = CharFormat.append("noise", noiseText, 0);
+			for (int axis = 0; axis < 3; axis++) {
+				noiseText[len++] = ' ';
+				len = CharFormat.append(stats.getNoise(axis), 4, noiseText, len);
+			}
+			noiseLabel.setText(noiseText, 0, len);
 		}
 	}
 
+	private static int appendMillis(long nanos, char[] out, int pos) {
+		return CharFormat.append(nanos / 1e6f, 1, out, pos);
+	}
+
+	// makes the still window's average read as zero
+	private void calibrate() {
+		calibrating = false;
+		calibrateButton.setText(R.string.calibrate);
+
+		AccelCalibration c = new AccelCalibration();
+		c.x = -stats.getStillMean(0);
+		c.y = -stats.getStillMean(1);
+		c.z = -stats.getStillMean(2);
+		c.save(this);
+		calibration = c;
+	}
+
+	private void logStats() {
+		Histogram gaps = stats.getIntervals();
+		Log.i(TAG, "samples=" + stats.getSampleCount()
+				+ " rate=" + stats.getRate()
+				+ " gap p50=" + gaps.getPercentile(0.5)
+				+ " p99=" + gaps.getPercentile(0.99)
+				+ " max=" + gaps.getMax() + "ns");
+	}
+
 	public void onClick(View v) {
 		if (v == calibrateButton) {
-			cx = -x;
-			cy = -y;
-			cz = -z;
+			// wait for a window that starts after the click, so the tap
+			// itself doesn't end up in the calibration
+			calibrating = true;
+			calibrateClicked = System.nanoTime();
+			calibrateButton.setText(R.string.hold_still);
+		} else if (v == delayButton && sensorMgr != null) {
+			logStats();
+			sensorMgr.unregisterListener(this, SENSOR_ACCELEROMETER);
+			delay = (delay + 1) % DELAYS.length;
+			register();
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,40 @@
+package com.stuffthathappens.games;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * The offsets that make the accelerometer read zero where the user
+ * calibrated it. Set on the Accel screen and kept in the preferences, so
+ * the games can add the same offsets to what they read.
+ */
+public class AccelCalibration {
+	private static final String PREFS_NAME = "accel_calibration";
+	private static final String KEY_X = "x";
+	private static final String KEY_Y = "y";
+	private static final String KEY_Z = "z";
+
+	// added to the raw values
+	public float x, y, z;
+
+	/**
+	 * @return the saved calibration, or zero offsets if there is none.
+	 */
+	public static AccelCalibration load(Context context) {
+		SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME,
+				Context.MODE_PRIVATE);
+		AccelCalibration c = new AccelCalibration();
+		c.x = prefs.getFloat(KEY_X, 0);
+		c.y = prefs.getFloat(KEY_Y, 0);
+		c.z = prefs.getFloat(KEY_Z, 0);
+		return c;
+	}
+
+	public void save(Context context) {
+		context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+				.putFloat(KEY_X, x)
+				.putFloat(KEY_Y, y)
+				.putFloat(KEY_Z, z)
+				.commit();
+	}
+}
@@ -0,0 +1,190 @@
+package com.stuffthathappens.games;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Smooths accelerometer samples without the sensor thread ever waiting.
+ * The sensor thread drops each sample into a small ring with
+ * {@link #offer(float, float, long)}, which is a handful of stores and
+ * never allocates. The physics thread calls {@link #poll()}, which folds
+ * every new sample, in order, into an exponential low-pass filter, then
+ * reads the filtered value from {@link #getX()} and {@link #getY()}.
+ * <p>
+ * The filter weighs samples by the time between them, so it behaves the
+ * same whatever rate the sensor delivers at. If the physics thread falls
+ * more than a ring's worth behind, the oldest samples are overwritten and
+ * counted as dropped.
+ * <p>
+ * There must only be one thread offering and one thread polling.
+ */
+public class AccelFilter {
+	private static final int CAPACITY = 32;
+	private static final int MASK = CAPACITY - 1;
+
+	// each slot is a sequence number, x and y packed into one long, the
+	// time, and a flag for samples that skip the filter. The sequence is
+	// written last, and negative while the slot is being written, so the
+	// reader can tell when a slot changed under it.
+	private static final int SLOT = 4;
+	private final AtomicLongArray slots = new AtomicLongArray(CAPACITY * SLOT);
+
+	// next sample to write, only written by the sensor thread
+	private volatile long tail;
+	private volatile long received;
+
+	private volatile long timeConstantNanos;
+
+	// everything below is only touched by the polling thread
+	private long head;
+	private float x, y;
+	private float latestX, latestY;
+	private long lastTime;
+	private boolean primed;
+	private volatile long consumed;
+	private volatile long dropped;
+
+	/**
+	 * @param timeConstantMs how quickly the output follows the input. After
+	 *        this long, about two thirds of a change has come through. 0
+	 *        turns filtering off.
+	 */
+	public AccelFilter(long timeConstantMs) {
+		setTimeConstant(timeConstantMs);
+	}
+
+	public void setTimeConstant(long timeConstantMs) {
+		timeConstantNanos = timeConstantMs * 1000000L;
+	}
+
+	/**
+	 * Queues a sample. Sensor thread only.
+	 */
+	public void offer(float ax, float ay, long timeNanos) {
+		put(ax, ay, timeNanos, false);
+	}
+
+	/**
+	 * Queues a value that the output jumps to straight away, bypassing the
+	 * filter. Sensor thread only.
+	 */
+	public void reset(float ax, float ay, long timeNanos) {
+		put(ax, ay, timeNanos, true);
+	}
+
+	private void put(float ax, float ay, long timeNanos, boolean jump) {
+		long t = tail;
+		int base = ((int) t & MASK) * SLOT;
+		slots.set(base, -(t + 1));
+		slots.set(base + 1, ((long) Float.floatToRawIntBits(ax) << 32)
+				| (Float.floatToRawIntBits(ay) & 0xffffffffL));
+		slots.set(base + 2, timeNanos);
+		slots.set(base + 3, jump ? 1 : 0);
+		slots.set(base, t + 1);
+		tail = t + 1;
+		received++;
+	}
+
+	/**
+	 * Folds every sample queued since the last poll into the filter.
+	 * Polling thread only.
+	 *
+	 * @return true if there were any new samples.
+	 */
+	public boolean poll() {
+		final long t = tail;
+		if (head == t) {
+			return false;
+		}
+		if (t - head > CAPACITY) {
+			dropped += t - head - CAPACITY;
+			head = t - CAPACITY;
+		}
+
+		final long tau = timeConstantNanos;
+		for (; head < t; head++) {
+			int base = ((int) head & MASK) * SLOT;
+			long seq = head + 1;
+			if (slots.get(base) != seq) {
+				// overwritten by a newer sample already
+				dropped++;
+				continue;
+			}
+			long xy = slots.get(base + 1);
+			long time = slots.get(base + 2);
+			boolean jump = slots.get(base + 3) != 0;
+			if (slots.get(base) != seq) {
+				dropped++;
+				continue;
+			}
+
+			float sx = Float.intBitsToFloat((int) (xy >>> 32));
+			float sy = Float.intBitsToFloat((int) xy);
+			latestX = sx;
+			latestY = sy;
+			if (jump || !primed || tau <= 0) {
+				x = sx;
+				y = sy;
+				primed = true;
+			} else {
+				long dt = Math.max(time - lastTime, 0);
+				float alpha = (float) (1 - Math.exp(-(double) dt / tau));
+				x += (sx - x) * alpha;
+				y += (sy - y) * alpha;
+			}
+			lastTime = time;
+			consumed++;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the filtered x value as of the last poll.
+	 */
+	public float getX() {
+		return x;
+	}
+
+	/**
+	 * @return the filtered y value as of the last poll.
+	 */
+	public float getY() {
+		return y;
+	}
+
+	/**
+	 * @return the newest raw x value as of the last poll, before
+	 *         filtering.
+	 */
+	public float getLatestX() {
+		return latestX;
+	}
+
+	/**
+	 * @return the newest raw y value as of the last poll, before
+	 *         filtering.
+	 */
+	public float getLatestY() {
+		return latestY;
+	}
+
+	/**
+	 * @return samples offered by the sensor thread.
+	 */
+	public long getReceivedCount() {
+		return received;
+	}
+
+	/**
+	 * @return samples folded into the filter.
+	 */
+	public long getConsumedCount() {
+		return consumed;
+	}
+
+	/**
+	 * @return samples overwritten before they were polled.
+	 */
+	public long getDroppedCount() {
+		return dropped;
+	}
+}
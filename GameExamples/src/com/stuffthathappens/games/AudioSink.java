@@ -0,0 +1,20 @@
+package com.stuffthathappens.games;
+
+import java.io.IOException;
+
+/**
+ * Where mixed audio goes: the speaker on the phone, or a file when
+ * measuring the mixer off the device. Samples are mono, 16 bit.
+ */
+public interface AudioSink {
+	
+	int getSampleRate();
+	
+	/**
+	 * Writes <code>count</code> samples. Sinks backed by real hardware
+	 * block until there is room, which is what paces the mixer.
+	 */
+	void write(short[] samples, int count) throws IOException;
+	
+	void close() throws IOException;
+}
@@ -0,0 +1,37 @@
+package com.stuffthathappens.games;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+
+/**
+ * Streams mixed audio to the speaker.
+ */
+public class AudioTrackSink implements AudioSink {
+	private final int sampleRate;
+	private final AudioTrack track;
+
+	public AudioTrackSink(int sampleRate) {
+		this.sampleRate = sampleRate;
+		// the smallest buffer the device allows keeps latency down
+		int bufferBytes = AudioTrack.getMinBufferSize(sampleRate,
+				AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT);
+		track = new AudioTrack(AudioManager.STREAM_MUSIC, sampleRate,
+				AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT,
+				bufferBytes, AudioTrack.MODE_STREAM);
+		track.play();
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public void write(short[] samples, int count) {
+		track.write(samples, 0, count);
+	}
+
+	public void close() {
+		track.stop();
+		track.release();
+	}
+}
@@ -0,0 +1,35 @@
+package com.stuffthathappens.games;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+/**
+ * Draws anti-aliased circles into bitmaps for {@link SpriteCache}. Each
+ * bitmap is square with the circle in the middle and a pixel of room
+ * around it for the anti-aliased edge, so the center of the circle is at
+ * half the bitmap's width.
+ */
+public class BitmapSpriteFactory implements SpriteCache.SpriteFactory<Bitmap> {
+	private final Paint paint = new Paint();
+
+	public BitmapSpriteFactory() {
+		paint.setAntiAlias(true);
+	}
+
+	public Bitmap create(int radius, int color) {
+		int size = radius * 2 + 2;
+		Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+		paint.setColor(color);
+		new Canvas(bitmap).drawCircle(radius + 1, radius + 1, radius, paint);
+		return bitmap;
+	}
+
+	public int getByteCount(Bitmap sprite) {
+		return sprite.getRowBytes() * sprite.getHeight();
+	}
+
+	public void release(Bitmap sprite) {
+		sprite.recycle();
+	}
+}
@@ -5,35 +5,101 @@ import static android.hardware.SensorManager.DATA_Y;
 import static android.hardware.SensorManager.SENSOR_ACCELEROMETER;
 import static android.hardware.SensorManager.SENSOR_DELAY_GAME;
 
-import java.util.concurrent.TimeUnit;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
 
 import android.app.Activity;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.hardware.SensorListener;
 import android.hardware.SensorManager;
 import android.os.Bundle;
+import android.os.Environment;
 import android.os.Vibrator;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.MotionEvent;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
+import android.view.View;
 import android.view.SurfaceHolder.Callback;
+import android.view.View.OnTouchListener;
 
 /**
  * This activity shows a ball that bounces around. The phone's 
  * accelerometer acts as gravity on the ball. When the ball hits
  * the edge, it bounces back and triggers the phone vibrator.
+ * Tap the screen to add more balls.
  */
-public class BouncingBallActivity extends Activity implements Callback, SensorListener {
+public class BouncingBallActivity extends Activity implements Callback, 
+		SensorListener, OnTouchListener {
+	private static final String TAG = "BouncingBallActivity";
 	private static final int BALL_RADIUS = 20;
+	
+	// the menu adds this many balls at once, handy for stress testing
+	private static final int MANY_BALLS = 1000;
+	private static final int MENU_ADD_BALLS = 1;
+	private static final int MENU_SHOW_TIMINGS = 2;
+	private static final int MENU_RECORD_SENSORS = 3;
+	
 	private SurfaceView surface;
 	private SurfaceHolder holder;
 	private final BouncingBallModel model = new BouncingBallModel(BALL_RADIUS);
 	private GameLoop gameLoop;
+	private final FrameMetrics metrics = new FrameMetrics();
+	private final MetricsOverlay overlay = new MetricsOverlay();
+	private volatile boolean showTimings;
+	private final CircleDamage damage = new CircleDamage();
+	
+	// while recording, every sensor sample also goes to a trace file on
+	// the SD card, for replaying with SensorTracePlayer
+	private SensorTraceRecorder recorder;
+	
+	// the model state in the saved instance state bundle
+	private static final String STATE_KEY = "balls";
+	
+	// balls never change size, so radii stay exact
+	private static final int SPRITE_BUCKET = 1;
+	private static final int MAX_SPRITES = 128;
+	private static final long MAX_SPRITE_BYTES = 4 * 1024 * 1024;
+	private final SpriteCache<Bitmap> sprites = new SpriteCache<Bitmap>(
+			new BitmapSpriteFactory(), MAX_SPRITES, MAX_SPRITE_BYTES, 
+			SPRITE_BUCKET);
+	
+	// the model steps the physics at its own fixed rate and interpolates
+	// between steps, so one update per frame is enough
+	private static final int UPDATES_PER_SECOND = 60;
+	private static final int FRAMES_PER_SECOND = 60;
+	private final GameLoop.Game game = new GameLoop.Game() {
+		public void update() {
+			model.updatePhysics();
+		}
+		
+		public void render() {
+			draw();
+		}
+		
+		public boolean isSettled() {
+			return model.isSettled();
+		}
+		
+		public WakeSignal getWakeSignal() {
+			return model.getWakeSignal();
+		}
+	};
 	private Paint backgroundPaint;
-	private Paint ballPaint;
 	private SensorManager sensorMgr;
-	private long lastSensorUpdate = -1;
+	
+	// bounces closer together than this feel like one buzz
+	private static final long HAPTIC_WINDOW_MS = 60;
+	private HapticDispatcher haptics;
+	private final Random random = new Random();
+	
 
 	@Override
     public void onCreate(Bundle savedInstanceState) {
@@ -48,27 +114,108 @@ public class BouncingBallActivity extends Activity implements Callback, SensorLi
     	backgroundPaint = new Paint();
 		backgroundPaint.setColor(Color.WHITE);
 
-		ballPaint = new Paint();
-		ballPaint.setColor(Color.BLUE);
-		ballPaint.setAntiAlias(true);
+		model.setBallColor(Color.BLUE);
+		
+		surface.setOnTouchListener(this);
+		
+		try {
+			StateStore.restore(model, savedInstanceState, STATE_KEY);
+		} catch (IOException e) {
+			Log.w(TAG, "could not read the saved state", e);
+		} catch (IllegalArgumentException e) {
+			Log.w(TAG, "ignoring a saved state from another version", e);
+		}
     }
     
+	@Override
+	protected void onSaveInstanceState(Bundle outState) {
+		super.onSaveInstanceState(outState);
+		try {
+			StateStore.save(model, outState, STATE_KEY, getCacheDir());
+		} catch (IOException e) {
+			Log.w(TAG, "could not save the state", e);
+		}
+	}
+    
+	@Override
+	public boolean onCreateOptionsMenu(Menu menu) {
+		menu.add(Menu.NONE, MENU_ADD_BALLS, Menu.NONE, R.string.add_balls);
+		menu.add(Menu.NONE, MENU_SHOW_TIMINGS, Menu.NONE, R.string.show_timings);
+		menu.add(Menu.NONE, MENU_RECORD_SENSORS, Menu.NONE, 
+				R.string.record_sensors);
+		return true;
+	}
+
+	@Override
+	public boolean onOptionsItemSelected(MenuItem item) {
+		if (item.getItemId() == MENU_ADD_BALLS) {
+			int width = surface.getWidth();
+			int height = surface.getHeight();
+			for (int i = 0; i < MANY_BALLS; i++) {
+				model.addBall(random.nextFloat() * width, 
+						random.nextFloat() * height);
+			}
+			return true;
+		}
+		if (item.getItemId() == MENU_SHOW_TIMINGS) {
+			// pin the overlay's area before it shows and unpin it after it's
+			// hidden, so no frame draws the overlay without redrawing its area
+			if (!showTimings) {
+				damage.setPinnedArea(0, 0, MetricsOverlay.WIDTH, 
+						MetricsOverlay.HEIGHT);
+				showTimings = true;
+			} else {
+				showTimings = false;
+				damage.clearPinnedArea();
+			}
+			model.getWakeSignal().wake();
+			return true;
+		}
+		if (item.getItemId() == MENU_RECORD_SENSORS) {
+			if (recorder == null) {
+				startRecording();
+			} else {
+				stopRecording();
+			}
+			return true;
+		}
+		return super.onOptionsItemSelected(item);
+	}
+    
 	@Override
 	protected void onPause() {
 		super.onPause();
 		
-		model.setVibrator(null);
+		model.setHapticDispatcher(null);
+		haptics.stop();
+		haptics = null;
 		
 		sensorMgr.unregisterListener(this, SENSOR_ACCELEROMETER);
 		sensorMgr = null;
 		
 		model.setAccel(0, 0);
+		stopRecording();
+		
+		AccelFilter accel = model.getAccelFilter();
+		Log.i(TAG, "accel samples received=" + accel.getReceivedCount()
+				+ " consumed=" + accel.getConsumedCount()
+				+ " dropped=" + accel.getDroppedCount());
+	}
+
+	@Override
+	protected void onDestroy() {
+		model.dispose();
+		super.onDestroy();
 	}
 
 	@Override
 	protected void onResume() {
 		super.onResume();
 		
+		// set on the Accel screen
+		AccelCalibration calibration = AccelCalibration.load(this);
+		model.setAccelOffset(calibration.x, calibration.y);
+		
 		sensorMgr = (SensorManager) getSystemService(SENSOR_SERVICE);
 		boolean accelSupported = sensorMgr.registerListener(this, 
 				SENSOR_ACCELEROMETER,
@@ -84,52 +231,105 @@ public class BouncingBallActivity extends Activity implements Callback, SensorLi
 		// NOTE 2: AndroidManifest.xml must contain this line:
 		// <uses-permission android:name="android.permission.VIBRATE"/>
 		Vibrator vibrator = (Vibrator) getSystemService(Activity.VIBRATOR_SERVICE);
-		model.setVibrator(vibrator);
+		haptics = new HapticDispatcher(new VibratorHaptics(vibrator), 
+				HAPTIC_WINDOW_MS);
+		haptics.start();
+		model.setHapticDispatcher(haptics);
+	}
+
+	private void startRecording() {
+		File file = new File(Environment.getExternalStorageDirectory(), 
+				"balls-" + System.currentTimeMillis() + ".trace");
+		try {
+			recorder = new SensorTraceRecorder(file);
+			Log.i(TAG, "recording sensors to " + file);
+		} catch (IOException e) {
+			Log.w(TAG, "could not start recording", e);
+		}
+	}
+	
+	private void stopRecording() {
+		if (recorder == null) {
+			return;
+		}
+		try {
+			Log.i(TAG, "recorded " + recorder.getRecordCount() + " samples");
+			recorder.close();
+		} catch (IOException e) {
+			Log.w(TAG, "could not finish the recording", e);
+		} finally {
+			recorder = null;
+		}
 	}
 
 	public void surfaceChanged(SurfaceHolder holder, int format, int width,
 			int height) {
 		
+		damage.setSize(width, height);
 		model.setSize(width, height);
 	}
 
 	public void surfaceCreated(SurfaceHolder holder) {
-		gameLoop = new GameLoop();
+		gameLoop = new GameLoop(game, UPDATES_PER_SECOND, FRAMES_PER_SECOND, 
+				metrics);
 		gameLoop.start();
 	}
 	
 	private void draw() {
-		// TODO thread safety - the SurfaceView could go away while we are drawing
-		
 		Canvas c = null;
+		long start = System.nanoTime();
 		try {
-			// NOTE: in the LunarLander they don't have any synchronization here,
-			// so I guess this is OK. It will return null if the holder is not ready
-			c = holder.lockCanvas();
+			// never blocks, even while the physics thread is busy
+			CircleBuffer balls = model.acquireBalls();
+			boolean changed = damage.update(balls);
+			long damaged = System.nanoTime();
+			metrics.record(FrameMetrics.DAMAGE, damaged - start);
+			if (!changed) {
+				// nothing moved and no overlay. While the overlay shows, its
+				// pinned area counts as damage, so it still gets redrawn.
+				return;
+			}
+			c = damage.lock(holder);
+			long locked = System.nanoTime();
+			metrics.record(FrameMetrics.LOCK_CANVAS, locked - damaged);
 			
-			// TODO this needs to synchronize on something
 			if (c != null) {
-				doDraw(c);
+				doDraw(c, balls);
+				start = System.nanoTime();
+				metrics.record(FrameMetrics.DRAW, start - locked);
 			}
 		} finally {
 			if (c != null) {
 				holder.unlockCanvasAndPost(c);
+				metrics.record(FrameMetrics.UNLOCK_AND_POST, 
+						System.nanoTime() - start);
 			}
 		}
 	}
 	
-	private void doDraw(Canvas c) {
-		int width = c.getWidth();
-		int height = c.getHeight();
-		c.drawRect(0, 0, width, height, backgroundPaint);
-		
-		float ballX, ballY;
-		synchronized (model.LOCK) {
-			ballX = model.ballPixelX;
-			ballY = model.ballPixelY;
-			
+	private void doDraw(Canvas c, CircleBuffer balls) {
+		// only the dirty area gets cleared, the rest still shows the last frame
+		Rect dirty = damage.getDirty();
+		c.drawRect(dirty.left, dirty.top, dirty.right, dirty.bottom, 
+				backgroundPaint);
+		
+		final int n = balls.count;
+		final float[] x = balls.x, y = balls.y, r = balls.radius;
+		final int[] color = balls.color;
+		for (int i = 0; i < n; i++) {
+			if (damage.isDirty(x[i], y[i], r[i])) {
+				// copying a pre-drawn circle is much cheaper than
+				// anti-aliasing a new one
+				Bitmap sprite = sprites.get(r[i], color[i]);
+				float half = sprite.getWidth() / 2f;
+				c.drawBitmap(sprite, x[i] - half, y[i] - half, null);
+			}
+		}
+		
+		metrics.setEntityCount(n);
+		if (showTimings) {
+			overlay.draw(c, metrics);
 		}
-		c.drawCircle(ballX, ballY, BALL_RADIUS, ballPaint);
 	}
 
 	public void surfaceDestroyed(SurfaceHolder holder) {
@@ -140,44 +340,30 @@ public class BouncingBallActivity extends Activity implements Callback, SensorLi
 			gameLoop = null;
 		}
 	}
-    
-	private class GameLoop extends Thread {
-		private volatile boolean running = true;
-		
-		public void run() {
-			while (running) {
-				try {
-					// TODO don't like this hardcoding
-					TimeUnit.MILLISECONDS.sleep(5);
-					
-					draw();
-					model.updatePhysics();
-
-				} catch (InterruptedException ie) {
-					running = false;
-				}
-			}
-		}
-		
-		public void safeStop() {
-			running = false;
-			interrupt();
-		}
-	}
 
 	public void onAccuracyChanged(int sensor, int accuracy) {		
 	}
 
 	public void onSensorChanged(int sensor, float[] values) {
 		if (sensor == SENSOR_ACCELEROMETER) {
-			long curTime = System.currentTimeMillis();
-			// only allow one update every 50ms, otherwise updates
-			// come way too fast
-			if (lastSensorUpdate == -1 || (curTime - lastSensorUpdate) > 50) {
-				lastSensorUpdate = curTime;
-				
-				model.setAccel(values[DATA_X], values[DATA_Y]);
+			// cheap enough to take every sample, the model smooths them
+			model.offerAccel(values[DATA_X], values[DATA_Y]);
+		}
+		if (recorder != null) {
+			try {
+				recorder.record(sensor, values);
+			} catch (IOException e) {
+				Log.w(TAG, "recording stopped", e);
+				stopRecording();
 			}
 		}
 	}
-}
+
+	public boolean onTouch(View v, MotionEvent event) {
+		if (event.getAction() == MotionEvent.ACTION_DOWN) {
+			model.addBall(event.getX(), event.getY());
+			return true;
+		}
+		return false;
+	}
+}
\ No newline at end of file
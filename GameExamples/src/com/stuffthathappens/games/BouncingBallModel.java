@@ -1,36 +1,84 @@
 package com.stuffthathappens.games;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
-import android.os.Vibrator;
-
 /**
  * This data model tracks the width and height of the playing field along 
- * with the current position of a ball. 
+ * with the current position of every ball. It has no Android dependencies,
+ * the activity supplies the vibrator through {@link Haptics}.
  */
-public class BouncingBallModel {
+public class BouncingBallModel implements Saveable {
 	// the ball speed is meters / second. When we draw to the screen,
 	// 1 pixel represents 1 meter. That ends up too slow, so multiply
 	// by this number. Bigger numbers speeds things up.
 	private final float pixelsPerMeter = 10;
 	
+	// radius of the first ball and of any ball added without a radius
 	private final int ballRadius;
 	
-	// these are public, so make sure you synchronize on LOCK 
-	// when reading these. I made them public since you need to
-	// get both X and Y in pairs, and this is more efficient than
-	// getter methods. With two getters, you'd still need to 
-	// synchronize.
-	public float ballPixelX, ballPixelY;
-	
-	private int pixelWidth, pixelHeight;
+	// Balls are stored as parallel arrays, one slot per ball, instead of one
+	// object per ball. The physics step is then a single pass over flat
+	// float arrays, which stays fast with thousands of balls. Everything
+	// here is guarded by LOCK, which only the physics thread and callers
+	// adding or moving balls take. The renderer never touches these, it
+	// reads the snapshots published below.
+	private int ballCount;
+	private float[] ballX, ballY;
 	
 	// values are in meters/second
-	private float velocityX, velocityY;
+	private float[] velocityX, velocityY;
+	private float[] radius;
+	
+	// where each ball was one physics step ago. Snapshots blend between
+	// this and ballX/Y, see publish().
+	private float[] prevBallX, prevBallY;
+	
+	// Render-visible ball positions. The physics thread fills the back
+	// buffer after every update and the render thread picks up the newest
+	// one, so neither thread ever waits for the other.
+	private final TripleBuffer<CircleBuffer> snapshots = 
+		new TripleBuffer<CircleBuffer>(
+				new CircleBuffer(), new CircleBuffer(), new CircleBuffer());
+	
+	// ARGB color written into every snapshot, blue unless changed
+	private volatile int ballColor = 0xff0000ff;
+	
+	// Broadphase for ball to ball collisions. Cells are as wide as the
+	// biggest ball, so two touching balls are always in the same or
+	// neighboring cells.
+	private final SpatialHash grid;
+	private float maxRadius;
+	private boolean gridStale = true;
+	
+	// the distinct buckets around the current ball, reused every step
+	private final int[] neighborBuckets = new int[9];
+	
+	// broadphase stats from the last physics step. If candidates grow much
+	// faster than the ball count, the grid isn't doing its job.
+	private volatile int candidatePairs;
+	private volatile int contacts;
+	
+	// width and height packed into one long, so they are always read as
+	// a pair without locking
+	private volatile long packedSize;
+	
+	// Gravity from the accelerometer. Typical values range from -10...10,
+	// but could be higher or lower if the user moves the phone rapidly.
+	// The sensor thread queues every sample without taking LOCK, and each
+	// update folds them into a low-pass filter.
+	private static final long ACCEL_SMOOTHING_MS = 30;
+	private final AccelFilter accelFilter = new AccelFilter(ACCEL_SMOOTHING_MS);
 	
-	// typical values range from -10...10, but could be higher or lower if
-	// the user moves the phone rapidly
-	private float accelX, accelY;
+	// True once an update leaves every ball exactly where it was, so the
+	// game loop can stop until something changes. settledAccel is the
+	// gravity the model settled under, packed like the size.
+	private volatile boolean settled;
+	private volatile long settledAccel;
+	private final WakeSignal wakeSignal = new WakeSignal();
 
 	/**
      * When the ball hits an edge, multiply the velocity by the rebound.
@@ -43,140 +91,731 @@ public class BouncingBallModel {
     // stop bouncing.
     private static final float STOP_BOUNCING_VELOCITY = 2f;
 
-    private volatile long lastTimeMs = -1;
+    // physics always advances in steps of this size, no matter how often
+    // updatePhysics() is called, so the simulation doesn't depend on the
+    // frame rate
+    private static final int STEPS_PER_SECOND = 120;
+    private static final long STEP_NANOS =
+    	TimeUnit.SECONDS.toNanos(1) / STEPS_PER_SECOND;
+    private static final float STEP_SECONDS = STEP_NANOS / 1e9f;
+    
+    // if a frame takes so long that we owe more steps than this, drop the
+    // backlog instead of trying to catch up. Otherwise a slow frame leads
+    // to even more work on the next frame, and so on.
+    private static final int MAX_STEPS_PER_UPDATE = 8;
+
+    // with at least this many balls, the wall pass of each step is split
+    // across all cores
+    private static final int PARALLEL_THRESHOLD = 2048;
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+    
+    // a change in gravity bigger than this wakes up a settled model
+    private static final float WAKE_ACCEL_CHANGE = 0.5f;
+
+    private volatile long lastTimeNanos = -1;
+    
+    // time owed to the simulation that is less than one step, only touched
+    // by the thread calling updatePhysics()
+    private long accumulatorNanos;
 	
 	public final Object LOCK = new Object();
 	
-	private AtomicReference<Vibrator> vibratorRef =
-		new AtomicReference<Vibrator>();
+	// started the first time a step is big enough to need it, and only
+	// used while holding LOCK
+	private WorkerPool pool;
+	private final WorkerPool.RangeTask integrator = new WorkerPool.RangeTask() {
+		public void run(int chunk, int from, int to) {
+			integrate(chunk, from, to);
+		}
+	};
+	
+	private int workerThreads = CORES;
+	
+	// what each chunk of integrate() found, combined by step()
+	private float[] chunkImpact = new float[CORES];
+	private boolean[] chunkMoved = new boolean[CORES];
+	private boolean stepMoved;
+	
+	// inputs to the current step, set before the workers start
+	private float stepWidth, stepHeight, stepDvx, stepDvy;
+	
+	private AtomicReference<HapticDispatcher> hapticsRef =
+		new AtomicReference<HapticDispatcher>();
+	
+	private final Clock clock;
+	
+	// the calibration, added to every sample from offerAccel()
+	private volatile float accelOffsetX, accelOffsetY;
 	
 	public BouncingBallModel(int ballRadius) {
+		this(ballRadius, Clock.SYSTEM);
+	}
+	
+	public BouncingBallModel(int ballRadius, Clock clock) {
 		this.ballRadius = ballRadius;
+		this.clock = clock;
+		
+		final int capacity = 16;
+		ballX = new float[capacity];
+		ballY = new float[capacity];
+		velocityX = new float[capacity];
+		velocityY = new float[capacity];
+		radius = new float[capacity];
+		prevBallX = new float[capacity];
+		prevBallY = new float[capacity];
+		grid = new SpatialHash(ballRadius * 2, capacity);
+		
+		// there is always at least one ball
+		addBall(0, 0, ballRadius);
+	}
+	
+	/**
+	 * Feeds in one raw accelerometer sample. The calibration offsets are
+	 * added first. Never blocks or allocates. All accelerometer input must
+	 * come from one thread.
+	 */
+	public void offerAccel(float ax, float ay) {
+		ax += accelOffsetX;
+		ay += accelOffsetY;
+		accelFilter.offer(ax, ay, clock.nanoTime());
+		wakeIfTilted(ax, ay);
 	}
 	
+	/**
+	 * Sets gravity straight away, without smoothing. Must be called from
+	 * the same thread as {@link #offerAccel(float, float)}.
+	 */
 	public void setAccel(float ax, float ay) {
-		synchronized (LOCK) {
-			this.accelX = ax;
-			this.accelY = ay;
+		accelFilter.reset(ax, ay, clock.nanoTime());
+		wakeIfTilted(ax, ay);
+	}
+	
+	/**
+	 * Sets what's added to raw samples so the position the device was
+	 * calibrated in reads as flat. See {@link AccelCalibration}.
+	 */
+	public void setAccelOffset(float x, float y) {
+		accelOffsetX = x;
+		accelOffsetY = y;
+	}
+	
+	/**
+	 * @param millis how long gravity takes to follow a tilt. About two
+	 *        thirds of a change comes through in this time. 0 turns
+	 *        smoothing off.
+	 */
+	public void setAccelSmoothing(long millis) {
+		accelFilter.setTimeConstant(millis);
+	}
+	
+	/**
+	 * @return the accelerometer input, for its received, consumed and
+	 *         dropped counts.
+	 */
+	public AccelFilter getAccelFilter() {
+		return accelFilter;
+	}
+	
+	private void wakeIfTilted(float ax, float ay) {
+		// While the balls are moving this just sets a flag.
+		if (isTilted(ax, ay)) {
+			wakeSignal.wake();
 		}
 	}
 	
+	// Compared against the gravity the balls came to rest under, rather
+	// than the previous sample, so a slow tilt still wakes things up.
+	private boolean isTilted(float ax, float ay) {
+		long s = settledAccel;
+		return Math.abs(ax - Float.intBitsToFloat(high(s))) > WAKE_ACCEL_CHANGE
+				|| Math.abs(ay - Float.intBitsToFloat(low(s))) > WAKE_ACCEL_CHANGE;
+	}
+	
+	/**
+	 * @param argb the color balls are drawn in from the next update on.
+	 */
+	public void setBallColor(int argb) {
+		ballColor = argb;
+		wakeSignal.wake();
+	}
+	
 	public void setSize(int width, int height) {
-		synchronized (LOCK) {
-			this.pixelWidth = width;
-			this.pixelHeight = height;
-		}
+		packedSize = pack(width, height);
+		wakeSignal.wake();
+	}
+	
+	/**
+	 * @return true if the last update moved nothing. There is no point
+	 *         calling updatePhysics() again until the wake signal fires.
+	 */
+	public boolean isSettled() {
+		return settled;
+	}
+	
+	/**
+	 * @return fired when gravity changes noticeably, a ball is added or
+	 *         moved, or the playing field is resized.
+	 */
+	public WakeSignal getWakeSignal() {
+		return wakeSignal;
+	}
+	
+	private static long pack(int high, int low) {
+		return ((long) high << 32) | (low & 0xffffffffL);
+	}
+	
+	private static int high(long packed) {
+		return (int) (packed >>> 32);
+	}
+	
+	private static int low(long packed) {
+		return (int) packed;
 	}
 	
     public int getBallRadius() {
         return ballRadius;
     }
+    
+    public int getBallCount() {
+    	synchronized (LOCK) {
+    		return ballCount;
+    	}
+    }
 
     /**
-     * Call this to move the ball to a particular location on the screen. This
-     * resets the velocity to zero, but the acceleration doesn't change so
-     * the ball should start falling shortly.
+     * Call this to move the first ball to a particular location on the
+     * screen. This resets the velocity to zero, but the acceleration doesn't
+     * change so the ball should start falling shortly.
      */
-    public void moveBall(int ballX, int ballY) {
+    public void moveBall(int x, int y) {
     	synchronized (LOCK) {
-            this.ballPixelX = ballX;
-            this.ballPixelY = ballY;
-            velocityX = 0;
-            velocityY = 0;
+            ballX[0] = x;
+            ballY[0] = y;
+            prevBallX[0] = x;
+            prevBallY[0] = y;
+            velocityX[0] = 0;
+            velocityY[0] = 0;
         }
+    	wakeSignal.wake();
+    }
+    
+    /**
+     * Adds a resting ball with the default radius.
+     */
+    public void addBall(float x, float y) {
+    	addBall(x, y, ballRadius);
+    }
+    
+    public void addBall(float x, float y, float r) {
+    	synchronized (LOCK) {
+    		if (ballCount == ballX.length) {
+    			int newCapacity = ballCount * 2;
+    			ballX = CircleBuffer.grow(ballX, ballCount, newCapacity);
+    			ballY = CircleBuffer.grow(ballY, ballCount, newCapacity);
+    			velocityX = CircleBuffer.grow(velocityX, ballCount, newCapacity);
+    			velocityY = CircleBuffer.grow(velocityY, ballCount, newCapacity);
+    			radius = CircleBuffer.grow(radius, ballCount, newCapacity);
+    			prevBallX = CircleBuffer.grow(prevBallX, ballCount, newCapacity);
+    			prevBallY = CircleBuffer.grow(prevBallY, ballCount, newCapacity);
+    		}
+    		int i = ballCount++;
+    		ballX[i] = x;
+    		ballY[i] = y;
+    		prevBallX[i] = x;
+    		prevBallY[i] = y;
+    		velocityX[i] = 0;
+    		velocityY[i] = 0;
+    		radius[i] = r;
+    		
+    		if (r > maxRadius) {
+    			maxRadius = r;
+    			grid.setCellSize(r * 2);
+    			gridStale = true;
+    		}
+    	}
+    	wakeSignal.wake();
+    }
+    
+    // saved state: magic, version, ball count, then one array after another
+    private static final int STATE_MAGIC = 0x42424c53; // "BBLS"
+    private static final int STATE_VERSION = 1;
+    private static final int STATE_HEADER_BYTES = 12;
+    private static final int STATE_BYTES_PER_BALL = 5 * 4;
+    
+    /**
+     * Writes every ball's position, velocity and radius. The screen size
+     * and gravity aren't saved, they come from the device on resume.
+     */
+    public ByteBuffer saveState() {
+    	synchronized (LOCK) {
+    		final int n = ballCount;
+    		ByteBuffer out = ByteBuffer.allocate(
+    				STATE_HEADER_BYTES + n * STATE_BYTES_PER_BALL);
+    		out.order(ByteOrder.nativeOrder());
+    		out.putInt(STATE_MAGIC).putInt(STATE_VERSION).putInt(n);
+    		putFloats(out, ballX, n);
+    		putFloats(out, ballY, n);
+    		putFloats(out, velocityX, n);
+    		putFloats(out, velocityY, n);
+    		putFloats(out, radius, n);
+    		out.flip();
+    		return out;
+    	}
+    }
+    
+    public void restoreState(ByteBuffer in) {
+    	if (in.remaining() < STATE_HEADER_BYTES || in.getInt() != STATE_MAGIC) {
+    		throw new IllegalArgumentException("not a bouncing ball state");
+    	}
+    	int version = in.getInt();
+    	if (version != STATE_VERSION) {
+    		throw new IllegalArgumentException("unknown state version " + version);
+    	}
+    	int n = in.getInt();
+    	if (n < 1 || in.remaining() < (long) n * STATE_BYTES_PER_BALL) {
+    		throw new IllegalArgumentException("truncated state, " + n + " balls");
+    	}
+    	
+    	synchronized (LOCK) {
+    		int capacity = Math.max(n, ballX.length);
+    		ballX = getFloats(in, n, capacity);
+    		ballY = getFloats(in, n, capacity);
+    		velocityX = getFloats(in, n, capacity);
+    		velocityY = getFloats(in, n, capacity);
+    		radius = getFloats(in, n, capacity);
+    		prevBallX = CircleBuffer.grow(ballX, n, capacity);
+    		prevBallY = CircleBuffer.grow(ballY, n, capacity);
+    		ballCount = n;
+    		
+    		maxRadius = 0;
+    		for (int i = 0; i < n; i++) {
+    			maxRadius = Math.max(maxRadius, radius[i]);
+    		}
+    		grid.setCellSize(maxRadius * 2);
+    		gridStale = true;
+    		publish(0);
+    	}
+    	wakeSignal.wake();
+    }
+    
+    private static void putFloats(ByteBuffer out, float[] src, int n) {
+    	out.asFloatBuffer().put(src, 0, n);
+    	out.position(out.position() + n * 4);
+    }
+    
+    private static float[] getFloats(ByteBuffer in, int n, int capacity) {
+    	float[] dst = new float[capacity];
+    	in.asFloatBuffer().get(dst, 0, n);
+    	in.position(in.position() + n * 4);
+    	return dst;
+    }
+    
+    /**
+     * @return how many ball pairs the broadphase handed to the narrowphase
+     *         during the last physics step.
+     */
+    public int getCandidatePairs() {
+    	return candidatePairs;
+    }
+    
+    /**
+     * @return how many of those pairs were actually touching.
+     */
+    public int getContacts() {
+    	return contacts;
+    }
+    
+    /**
+     * Returns the newest ball positions published by the physics thread.
+     * Positions are already blended between the last two physics steps, so
+     * drawing stays smooth when the frame rate and physics rate don't line
+     * up. The buffer stays valid until the next call. Only call this from
+     * the thread that draws.
+     */
+    public CircleBuffer acquireBalls() {
+    	snapshots.acquire();
+    	return snapshots.getFront();
     }
     
+    /**
+     * Advances the simulation by however many fixed steps have elapsed since
+     * the last call, then publishes a snapshot for the renderer. See
+     * {@link #acquireBalls()}.
+     */
     public void updatePhysics() {
-        // copy everything to local vars (hence the 'l' prefix)
-        float lWidth, lHeight, lBallX, lBallY, lAx, lAy, lVx, lVy;
-        synchronized (LOCK) {
-            lWidth = pixelWidth;
-            lHeight = pixelHeight;
-            lBallX = ballPixelX;
-            lBallY = ballPixelY;
-            lVx = velocityX;            
-            lVy = velocityY;
-            lAx = accelX;
-            lAy = -accelY;
-        }
-
-
-        if (lWidth <= 0 || lHeight <= 0) {
-            // invalid width and height, nothing to do until the GUI comes up
+        long curTime = clock.nanoTime();
+        if (lastTimeNanos < 0) {
+            lastTimeNanos = curTime;
             return;
         }
 
+        if (settled) {
+        	// We are coming back from idle, so the time since the last
+        	// update wasn't simulated time. Start counting from now.
+        	settled = false;
+        	lastTimeNanos = curTime;
+        	accumulatorNanos = 0;
+        	return;
+        }
 
-        long curTime = System.currentTimeMillis();
-        if (lastTimeMs < 0) {
-            lastTimeMs = curTime;
+        accumulatorNanos += curTime - lastTimeNanos;
+        lastTimeNanos = curTime;
+        
+        long size = packedSize;
+        int lWidth = high(size);
+        int lHeight = low(size);
+        if (lWidth <= 0 || lHeight <= 0) {
+            // invalid width and height, nothing to do until the GUI
+            // comes up
+            accumulatorNanos = 0;
             return;
         }
-
-        long elapsedMs = curTime - lastTimeMs;
-        lastTimeMs = curTime;
         
-        // update the velocity
-        // (divide by 1000 to convert ms to seconds)
-        // end result is meters / second
-        lVx += ((elapsedMs * lAx) / 1000) * pixelsPerMeter;
-        lVy += ((elapsedMs * lAy) / 1000) * pixelsPerMeter;
-
-        // update the position
-        // (velocity is meters/sec, so divide by 1000 again)
-        lBallX += ((lVx * elapsedMs) / 1000) * pixelsPerMeter;
-        lBallY += ((lVy * elapsedMs) / 1000) * pixelsPerMeter;
+        // everything the sensor delivered since the last update
+        accelFilter.poll();
+        float filteredX = accelFilter.getX();
+        float filteredY = accelFilter.getY();
+        long accel = pack(Float.floatToRawIntBits(filteredX), 
+        		Float.floatToRawIntBits(filteredY));
+        float lAx = filteredX;
+        float lAy = -filteredY;
         
-        boolean bouncedX = false;
-        boolean bouncedY = false;
+        // hardest wall impact during this update, 0 if nothing bounced
+        float impact = 0;
+        boolean moved = false;
 
-        if (lBallY - ballRadius < 0) {
-            lBallY = ballRadius;
-            lVy = -lVy * rebound;
-            bouncedY = true;
-        } else if (lBallY + ballRadius > lHeight) {
-            lBallY = lHeight - ballRadius;
-            lVy = -lVy * rebound;
-            bouncedY = true;
+        synchronized (LOCK) {
+            int steps = 0;
+            while (accumulatorNanos >= STEP_NANOS && steps < MAX_STEPS_PER_UPDATE) {
+            	accumulatorNanos -= STEP_NANOS;
+            	steps++;
+            	impact = Math.max(impact, step(lWidth, lHeight, lAx, lAy));
+            	moved |= stepMoved;
+            }
+            
+            if (accumulatorNanos >= STEP_NANOS) {
+            	// we fell too far behind, so let the simulation lose some time
+            	accumulatorNanos %= STEP_NANOS;
+            }
+            publish((float) accumulatorNanos / STEP_NANOS);
+            
+            if (steps > 0 && !moved) {
+            	settledAccel = accel;
+            	settled = true;
+            	// A sample that came in since the poll above was checked
+            	// against the old settledAccel, so it may not have woken
+            	// anything. Later ones see the new value.
+            	if (accelFilter.poll() && isTilted(accelFilter.getLatestX(),
+            			accelFilter.getLatestY())) {
+            		settled = false;
+            	}
+            }
         }
-        if (bouncedY && Math.abs(lVy) < STOP_BOUNCING_VELOCITY) {
-            lVy = 0;  
-            bouncedY = false;
+        
+        if (impact > 0) {
+        	// just queues the event, the vibrator is driven elsewhere
+        	HapticDispatcher h = hapticsRef.get();
+        	if (h != null) {
+        		h.post(impact);
+        	}
         }
-
-        if (lBallX - ballRadius < 0) {
-        	lBallX = ballRadius;
-        	lVx = -lVx * rebound;
-        	bouncedX = true;
-        } else if (lBallX + ballRadius > lWidth) {
-            lBallX = lWidth - ballRadius;
-            lVx = -lVx * rebound;
-            bouncedX = true;
+    }
+    
+    /**
+     * Fills the back snapshot with positions <code>alpha</code> (0..1) of
+     * the way from the previous step to the current one, then hands it to
+     * the renderer. Caller must hold LOCK.
+     */
+    private void publish(float alpha) {
+    	final int n = ballCount;
+    	CircleBuffer dst = snapshots.getBack();
+    	dst.ensureCapacity(n);
+    	float[] dx = dst.x, dy = dst.y;
+    	int[] id = dst.id;
+    	for (int i = 0; i < n; i++) {
+    		dx[i] = prevBallX[i] + (ballX[i] - prevBallX[i]) * alpha;
+    		dy[i] = prevBallY[i] + (ballY[i] - prevBallY[i]) * alpha;
+    		// balls are never removed, so the index is stable
+    		id[i] = i;
+    	}
+    	System.arraycopy(radius, 0, dst.radius, 0, n);
+    	Arrays.fill(dst.color, 0, n, ballColor);
+    	dst.count = n;
+    	snapshots.publish();
+    }
+    
+    /**
+     * Advances every ball by one fixed step. Caller must hold LOCK.
+     * 
+     * @return the speed of the hardest wall impact among balls that bounced
+     *         hard enough to keep bouncing, or 0 if there were none.
+     */
+    private float step(float lWidth, float lHeight, float lAx, float lAy) {
+        final int n = ballCount;
+        stepWidth = lWidth;
+        stepHeight = lHeight;
+        stepDvx = STEP_SECONDS * lAx * pixelsPerMeter;
+        stepDvy = STEP_SECONDS * lAy * pixelsPerMeter;
+        
+        System.arraycopy(ballX, 0, prevBallX, 0, n);
+        System.arraycopy(ballY, 0, prevBallY, 0, n);
+        
+        // resolve ball to ball contacts first, so the wall checks below get
+        // the last word and no ball ends the step outside the field
+        collide(n);
+        
+        // Every ball moves independently of the others here, so splitting
+        // the balls across threads gives exactly the same numbers as doing
+        // them all on this thread. Small scenes aren't worth the handoff.
+        int chunks = 1;
+        if (n < PARALLEL_THRESHOLD || getPool() == null) {
+        	integrate(0, 0, n);
+        } else {
+        	chunks = pool.getThreadCount();
+        	pool.run(integrator, n);
         }
-        if (bouncedX && Math.abs(lVx) < STOP_BOUNCING_VELOCITY) {
-        	lVx = 0;
-        	bouncedX = false;
+        
+        float impact = 0;
+        boolean moved = false;
+        for (int i = 0; i < chunks; i++) {
+        	impact = Math.max(impact, chunkImpact[i]);
+        	moved |= chunkMoved[i];
         }
+        stepMoved = moved;
+        return impact;
+    }
+    
+    /**
+     * Moves balls <code>from</code> up to <code>to</code> and bounces them
+     * off the walls, using the step values set up by step(). May run on a
+     * worker thread, so it must only write to its own slots. Records the
+     * hardest wall impact among those balls (as in step()) and whether any
+     * of them moved under <code>chunk</code>.
+     */
+    private void integrate(int chunk, int from, int to) {
+        // copy everything to local vars (hence the 'l' prefix), the
+        // loop below is the hot spot once there are lots of balls
+        final float lWidth = stepWidth;
+        final float lHeight = stepHeight;
+        final float dvx = stepDvx;
+        final float dvy = stepDvy;
+        final float dt = STEP_SECONDS * pixelsPerMeter;
+        final float[] lx = ballX, ly = ballY, lvx = velocityX, lvy = velocityY;
+        final float[] lr = radius;
         
+        final float[] lPrevX = prevBallX, lPrevY = prevBallY;
+        float impact = 0;
+        boolean moved = false;
+        for (int i = from; i < to; i++) {
+            // update the velocity, end result is meters / second
+            float lVx = lvx[i] + dvx;
+            float lVy = lvy[i] + dvy;
 
-        // safely copy local vars back to object fields
-        synchronized (LOCK) {
-            ballPixelX = lBallX;
-            ballPixelY = lBallY;
+            // update the position
+            float lBallX = lx[i] + lVx * dt;
+            float lBallY = ly[i] + lVy * dt;
+            float r = lr[i];
             
-            velocityX = lVx;
-            velocityY = lVy;
-        }
-        
-        if (bouncedX || bouncedY) {
-        	Vibrator v = vibratorRef.get();
-        	if (v != null) {
-        		v.vibrate(20L);
-        	}
+            boolean bouncedX = false;
+            boolean bouncedY = false;
+
+            // speeds going into the walls, for haptic feedback
+            float impactX = Math.abs(lVx);
+            float impactY = Math.abs(lVy);
+
+            if (lBallY - r < 0) {
+                lBallY = r;
+                lVy = -lVy * rebound;
+                bouncedY = true;
+            } else if (lBallY + r > lHeight) {
+                lBallY = lHeight - r;
+                lVy = -lVy * rebound;
+                bouncedY = true;
+            }
+            if (bouncedY && Math.abs(lVy) < STOP_BOUNCING_VELOCITY) {
+                lVy = 0;  
+                bouncedY = false;
+            }
+
+            if (lBallX - r < 0) {
+            	lBallX = r;
+            	lVx = -lVx * rebound;
+            	bouncedX = true;
+            } else if (lBallX + r > lWidth) {
+                lBallX = lWidth - r;
+                lVx = -lVx * rebound;
+                bouncedX = true;
+            }
+            if (bouncedX && Math.abs(lVx) < STOP_BOUNCING_VELOCITY) {
+            	lVx = 0;
+            	bouncedX = false;
+            }
+            
+            lx[i] = lBallX;
+            ly[i] = lBallY;
+            lvx[i] = lVx;
+            lvy[i] = lVy;
+            if (bouncedX && impactX > impact) {
+            	impact = impactX;
+            }
+            if (bouncedY && impactY > impact) {
+            	impact = impactY;
+            }
+            if (lBallX != lPrevX[i] || lBallY != lPrevY[i]) {
+            	moved = true;
+            }
         }
+        chunkImpact[chunk] = impact;
+        chunkMoved[chunk] = moved;
+    }
+    
+    /**
+     * Pushes overlapping balls apart and bounces them off each other using
+     * the same rebound as the walls. Caller must hold LOCK.
+     */
+    private void collide(final int n) {
+    	final SpatialHash g = grid;
+        final float[] lx = ballX, ly = ballY, lvx = velocityX, lvy = velocityY;
+        final float[] lr = radius;
+        final int[] seen = neighborBuckets;
+    	
+    	if (g.ensureCapacity(n)) {
+    		gridStale = true;
+    	}
+    	if (gridStale) {
+    		g.clear();
+    		gridStale = false;
+    	}
+    	// only balls that crossed into another cell are relinked
+    	for (int i = 0; i < n; i++) {
+    		g.update(i, lx[i], ly[i]);
+    	}
+    	
+    	int lCandidates = 0;
+    	int lContacts = 0;
+    	for (int i = 0; i < n; i++) {
+    		int cellX = g.cell(lx[i]);
+    		int cellY = g.cell(ly[i]);
+    		int seenCount = 0;
+    		
+    		for (int dy = -1; dy <= 1; dy++) {
+    			nextCell:
+    			for (int dx = -1; dx <= 1; dx++) {
+    				int bucket = g.bucket(cellX + dx, cellY + dy);
+    				// two cells can hash to the same bucket, don't
+    				// visit it twice
+    				for (int k = 0; k < seenCount; k++) {
+    					if (seen[k] == bucket) {
+    						continue nextCell;
+    					}
+    				}
+    				seen[seenCount++] = bucket;
+    				
+    				for (int j = g.first(bucket); j >= 0; j = g.next(j)) {
+    					// each pair is found from both sides, only handle
+    					// it once
+    					if (j <= i) {
+    						continue;
+    					}
+    					lCandidates++;
+    					
+    					float distX = lx[j] - lx[i];
+    					float distY = ly[j] - ly[i];
+    					float minDist = lr[i] + lr[j];
+    					float distSq = distX * distX + distY * distY;
+    					if (distSq >= minDist * minDist) {
+    						continue;
+    					}
+    					lContacts++;
+    					
+    					// unit vector from ball i towards ball j
+    					float dist = (float) Math.sqrt(distSq);
+    					float nx = 1, ny = 0;
+    					if (dist > 0) {
+    						nx = distX / dist;
+    						ny = distY / dist;
+    					}
+    					
+    					// mass goes with area, so big balls shove small ones
+    					float massI = lr[i] * lr[i];
+    					float massJ = lr[j] * lr[j];
+    					float invTotal = 1f / (massI + massJ);
+    					
+    					// move them apart so they just touch
+    					float overlap = minDist - dist;
+    					lx[i] -= nx * overlap * massJ * invTotal;
+    					ly[i] -= ny * overlap * massJ * invTotal;
+    					lx[j] += nx * overlap * massI * invTotal;
+    					ly[j] += ny * overlap * massI * invTotal;
+    					
+    					// only bounce if they are moving towards each other
+    					float closing = (lvx[j] - lvx[i]) * nx + (lvy[j] - lvy[i]) * ny;
+    					if (closing < 0) {
+    						float impulse = (1 + rebound) * closing * invTotal;
+    						lvx[i] += impulse * massJ * nx;
+    						lvy[i] += impulse * massJ * ny;
+    						lvx[j] -= impulse * massI * nx;
+    						lvy[j] -= impulse * massI * ny;
+    					}
+    				}
+    			}
+    		}
+    	}
+    	candidatePairs = lCandidates;
+    	contacts = lContacts;
+    }
+    
+    /**
+     * @return the worker pool, or null if only one thread should be used.
+     */
+    private WorkerPool getPool() {
+    	if (pool == null && workerThreads > 1) {
+    		pool = new WorkerPool(workerThreads);
+    	}
+    	return pool;
     }
     
-    public void setVibrator(Vibrator v) {
-    	vibratorRef.set(v);
+    /**
+     * Sets how many threads share the wall pass of big steps, counting the
+     * one calling updatePhysics(). The default is one per core, and 1 keeps
+     * everything on the calling thread. The results are the same either
+     * way, this only changes how fast they come.
+     */
+    public void setWorkerThreads(int threads) {
+    	if (threads < 1) {
+    		throw new IllegalArgumentException("threads must be at least 1");
+    	}
+    	synchronized (LOCK) {
+    		if (pool != null) {
+    			pool.shutdown();
+    			pool = null;
+    		}
+    		workerThreads = threads;
+    		if (chunkImpact.length < threads) {
+    			chunkImpact = new float[threads];
+    			chunkMoved = new boolean[threads];
+    		}
+    	}
+    }
+    
+    /**
+     * Stops any worker threads. Call this when the model is no longer
+     * needed.
+     */
+    public void dispose() {
+    	synchronized (LOCK) {
+    		if (pool != null) {
+    			pool.shutdown();
+    			pool = null;
+    		}
+    	}
+    }
+    
+    /**
+     * @param h told about every update in which a ball hit a wall, or null
+     *        to turn that off.
+     */
+    public void setHapticDispatcher(HapticDispatcher h) {
+    	hapticsRef.set(h);
     }
 }
@@ -1,13 +1,17 @@
 package com.stuffthathappens.games;
 
-import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.io.IOException;
 
 import android.app.Activity;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.os.Bundle;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
@@ -17,14 +21,65 @@ import android.view.View.OnTouchListener;
 
 /**
  * When you tap the screen, bubbles appear on the screen. They expand and eventually pop.
+ * Dragging, with as many fingers as the screen supports, leaves a trail of
+ * bubbles. Tapping a bubble pops it early.
  */
 public class BubblesActivity extends Activity implements Callback, OnTouchListener {
+	private static final String TAG = "BubblesActivity";
+	private static final int MENU_SHOW_TIMINGS = 1;
+	
 	private SurfaceView surface;
 	private SurfaceHolder holder;
 	private final BubblesModel model = new BubblesModel();
 	private GameLoop gameLoop;
+	private final FrameMetrics metrics = new FrameMetrics();
+	private final MetricsOverlay overlay = new MetricsOverlay();
+	private volatile boolean showTimings;
+	private final CircleDamage damage = new CircleDamage();
+	
+	// the model state in the saved instance state bundle
+	private static final String STATE_KEY = "bubbles";
+	
+	// bubbles grow all the time, so sizes snap to every other pixel
+	private static final int SPRITE_BUCKET = 2;
+	private static final int MAX_SPRITES = 128;
+	private static final long MAX_SPRITE_BYTES = 4 * 1024 * 1024;
+	private final SpriteCache<Bitmap> sprites = new SpriteCache<Bitmap>(
+			new BitmapSpriteFactory(), MAX_SPRITES, MAX_SPRITE_BYTES, 
+			SPRITE_BUCKET);
+	
+	// bubbles are sized by the update that publishes them, so update as
+	// often as we draw
+	private static final int UPDATES_PER_SECOND = 60;
+	private static final int FRAMES_PER_SECOND = 60;
+	private final GameLoop.Game game = new GameLoop.Game() {
+		public void update() {
+			model.updateBubbles();
+		}
+		
+		public void render() {
+			draw();
+		}
+		
+		public boolean isSettled() {
+			return model.isSettled();
+		}
+		
+		public WakeSignal getWakeSignal() {
+			return model.getWakeSignal();
+		}
+	};
 	private Paint backgroundPaint;
-	private Paint bubblePaint;
+	
+	// at most this many pop sounds per second, any more just sound like noise
+	private static final float POP_SOUNDS_PER_SECOND = 30;
+	private static final int POP_SOUND_BURST = 8;
+	private SoundEffect popSound;
+	private PopListener popSoundListener;
+	
+	// dragging leaves a trail of bubbles about this far apart, in pixels
+	private static final float TRAIL_SPACING = 30;
+	private final TouchTrail touchTrail = new TouchTrail(TRAIL_SPACING);
 
 	@Override
     public void onCreate(Bundle savedInstanceState) {
@@ -39,63 +94,165 @@ public class BubblesActivity extends Activity implements Callback, OnTouchListen
     	backgroundPaint = new Paint();
 		backgroundPaint.setColor(Color.BLUE);
 
-		bubblePaint = new Paint();
-		bubblePaint.setColor(Color.WHITE);
-		bubblePaint.setAntiAlias(true);
+		model.setBubbleColor(Color.WHITE);
 		
 		surface.setOnTouchListener(this);
+		
+		try {
+			StateStore.restore(model, savedInstanceState, STATE_KEY);
+		} catch (IOException e) {
+			Log.w(TAG, "could not read the saved state", e);
+		} catch (IllegalArgumentException e) {
+			Log.w(TAG, "ignoring a saved state from another version", e);
+		}
     }
     
+	@Override
+	protected void onSaveInstanceState(Bundle outState) {
+		super.onSaveInstanceState(outState);
+		try {
+			StateStore.save(model, outState, STATE_KEY, getCacheDir());
+		} catch (IOException e) {
+			Log.w(TAG, "could not save the state", e);
+		}
+	}
+    
+	@Override
+	public boolean onCreateOptionsMenu(Menu menu) {
+		menu.add(Menu.NONE, MENU_SHOW_TIMINGS, Menu.NONE, R.string.show_timings);
+		return true;
+	}
+
+	@Override
+	public boolean onOptionsItemSelected(MenuItem item) {
+		if (item.getItemId() == MENU_SHOW_TIMINGS) {
+			// pin the overlay's area before it shows and unpin it after it's
+			// hidden, so no frame draws the overlay without redrawing its area
+			if (!showTimings) {
+				damage.setPinnedArea(0, 0, MetricsOverlay.WIDTH, 
+						MetricsOverlay.HEIGHT);
+				showTimings = true;
+			} else {
+				showTimings = false;
+				damage.clearPinnedArea();
+			}
+			model.getWakeSignal().wake();
+			return true;
+		}
+		return super.onOptionsItemSelected(item);
+	}
+    
 	@Override
 	protected void onPause() {
-		model.onPause(this);		
+		model.getPopEvents().removeListener(popSoundListener);
+		popSoundListener = null;
+		popSound.release();
+		if (popSound instanceof MixerSoundEffect) {
+			IOException e = ((MixerSoundEffect) popSound).getFailure();
+			if (e != null) {
+				Log.w(TAG, "pop sound output failed", e);
+			}
+		}
+		popSound = null;
 		super.onPause();
 	}
 
 	@Override
 	protected void onResume() {
 		super.onResume();
-		model.onResume(this);
+		final SoundEffect sound = createPopSound();
+		popSound = sound;
+		popSoundListener = new RateLimitedPopListener(new PopListener() {
+			public void onPops(PopEvents batch) {
+				// one sound per bubble, the mixer overlaps them
+				for (int i = 0; i < batch.count; i++) {
+					sound.play();
+				}
+			}
+		}, POP_SOUNDS_PER_SECOND, POP_SOUND_BURST);
+		model.getPopEvents().addListener(popSoundListener);
+	}
+	
+	private SoundEffect createPopSound() {
+		try {
+			PcmSample pop = PcmSample.load(this, R.raw.pop);
+			return new MixerSoundEffect(pop.data, new AudioTrackSink(pop.sampleRate));
+		} catch (IOException e) {
+			Log.w(TAG, "could not decode the pop sound", e);
+		} catch (RuntimeException e) {
+			Log.w(TAG, "could not open the audio track", e);
+		} catch (LinkageError e) {
+			// MediaCodec only exists on newer devices
+			Log.w(TAG, "no decoder on this device", e);
+		}
+		return new MediaPlayerSoundEffect(this, R.raw.pop);
 	}
 
 	public void surfaceChanged(SurfaceHolder holder, int format, int width,
 			int height) {
+		damage.setSize(width, height);
 		model.setSize(width, height);
 	}
 
 	public void surfaceCreated(SurfaceHolder holder) {
-		gameLoop = new GameLoop();
+		gameLoop = new GameLoop(game, UPDATES_PER_SECOND, FRAMES_PER_SECOND, 
+				metrics);
 		gameLoop.start();
 	}
 	
 	private void draw() {
-		// TODO thread safety - the SurfaceView could go away while we are drawing
-		
 		Canvas c = null;
+		long start = System.nanoTime();
 		try {
-			// NOTE: in the LunarLander they don't have any synchronization here,
-			// so I guess this is OK. It will return null if the holder is not ready
-			c = holder.lockCanvas();
+			CircleBuffer bubbles = model.acquireBubbles();
+			boolean changed = damage.update(bubbles);
+			long damaged = System.nanoTime();
+			metrics.record(FrameMetrics.DAMAGE, damaged - start);
+			if (!changed) {
+				// nothing moved and no overlay. While the overlay shows, its
+				// pinned area counts as damage, so it still gets redrawn.
+				return;
+			}
+			c = damage.lock(holder);
+			long locked = System.nanoTime();
+			metrics.record(FrameMetrics.LOCK_CANVAS, locked - damaged);
 			
-			// TODO this needs to synchronize on something
 			if (c != null) {
-				doDraw(c);
+				doDraw(c, bubbles);
+				start = System.nanoTime();
+				metrics.record(FrameMetrics.DRAW, start - locked);
 			}
 		} finally {
 			if (c != null) {
 				holder.unlockCanvasAndPost(c);
+				metrics.record(FrameMetrics.UNLOCK_AND_POST, 
+						System.nanoTime() - start);
 			}
 		}
 	}
 	
-	private void doDraw(Canvas c) {
-		int width = c.getWidth();
-		int height = c.getHeight();
-		c.drawRect(0, 0, width, height, backgroundPaint);
+	private void doDraw(Canvas c, CircleBuffer bubbles) {
+		// only the dirty area gets cleared, the rest still shows the last frame
+		Rect dirty = damage.getDirty();
+		c.drawRect(dirty.left, dirty.top, dirty.right, dirty.bottom, 
+				backgroundPaint);
 		
-		List<BubblesModel.Bubble> bubbles = model.getBubbles();
-		for (BubblesModel.Bubble bubble : bubbles) {
-			c.drawCircle(bubble.x, bubble.y, bubble.radius, bubblePaint);
+		final int n = bubbles.count;
+		final float[] x = bubbles.x, y = bubbles.y, r = bubbles.radius;
+		final int[] color = bubbles.color;
+		for (int i = 0; i < n; i++) {
+			if (damage.isDirty(x[i], y[i], r[i])) {
+				// copying a pre-drawn circle is much cheaper than
+				// anti-aliasing a new one
+				Bitmap sprite = sprites.get(r[i], color[i]);
+				float half = sprite.getWidth() / 2f;
+				c.drawBitmap(sprite, x[i] - half, y[i] - half, null);
+			}
+		}
+		
+		metrics.setEntityCount(n);
+		if (showTimings) {
+			overlay.draw(c, metrics);
 		}
 	}
 
@@ -107,37 +264,19 @@ public class BubblesActivity extends Activity implements Callback, OnTouchListen
 			gameLoop = null;
 		}
 	}
-    
-	private class GameLoop extends Thread {
-		private volatile boolean running = true;
-		
-		public void run() {
-			while (running) {
-				try {
-					// TODO don't like this hardcoding
-					TimeUnit.MILLISECONDS.sleep(5);
-					
-					draw();
-					model.updateBubbles();
-
-				} catch (InterruptedException ie) {
-					running = false;
-				}
-			}
-		}
-		
-		public void safeStop() {
-			running = false;
-			interrupt();
-		}
-	}
 
 	public boolean onTouch(View v, MotionEvent event) {
-		if (event.getAction() == MotionEvent.ACTION_DOWN) {
-			model.addBubble(event.getX(), event.getY());
-			return true;
+		int n = touchTrail.sample(event);
+		int action = event.getAction() & MotionEvent.ACTION_MASK;
+		if (n == 1 && (action == MotionEvent.ACTION_DOWN 
+				|| action == MotionEvent.ACTION_POINTER_DOWN)) {
+			// tapping a bubble pops it, tapping anywhere else makes a new one
+			if (model.popBubbleAt(touchTrail.xs[0], touchTrail.ys[0])) {
+				return true;
+			}
 		}
-		return false;
+		model.addBubbles(touchTrail.xs, touchTrail.ys, n);
+		return true;
 	}
 
 
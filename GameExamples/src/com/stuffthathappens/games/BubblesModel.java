@@ -1,150 +1,491 @@
 package com.stuffthathappens.games;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Set;
-
-import android.content.Context;
-import android.media.MediaPlayer;
-import android.media.MediaPlayer.OnCompletionListener;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
- * This data model tracks bubbles on the screen.
+ * This data model tracks bubbles on the screen. It has no Android
+ * dependencies, anything that reacts to pops (like the pop sound) listens
+ * to {@link #getPopEvents()}.
  * 
  * @see BubblesActivity
  */
-public class BubblesModel implements OnCompletionListener {
+public class BubblesModel implements Saveable {
 	
 	private static final float INITIAL_RADIUS = 20f;
 	private static final float MAX_RADIUS = 100f;
 	
 	// higher numbers make the balls expand faster
 	private static final float RADIUS_CHANGE_PER_MS = .08f;
+	private static final float RADIUS_CHANGE_PER_NANO = RADIUS_CHANGE_PER_MS / 1e6f;
+	
+	// Every bubble grows at the same rate from the same size, so they all
+	// live exactly this long and pop in the order they were added.
+	private static final long LIFETIME_NANOS = 
+		(long) ((MAX_RADIUS - INITIAL_RADIUS) / RADIUS_CHANGE_PER_NANO);
+	
+	private final PopEventStream popEvents = new PopEventStream();
+	
+	// A bubble is just where it is and when it was born, its radius follows
+	// from the time. Since bubbles pop oldest first, they live in a ring
+	// ordered by birth time: new ones go on the tail and pops come off the
+	// head, so finding the pops only costs as much as the number of bubbles
+	// that pop. Capacity is a power of two. Guarded by LOCK.
+	private float[] bubbleX, bubbleY;
+	private long[] birthNanos;
+	private int head, count;
+	
+	// each bubble gets the next id when it's added, so ids grow from head
+	// to tail and let the renderer tell bubbles apart across snapshots
+	private int[] bubbleId;
+	private int nextId;
+	
+	// Bubbles popped by a tap stay in the ring, marked dead, until they
+	// reach the head. So count includes them and liveCount doesn't.
+	private boolean[] alive;
+	private int liveCount;
+	
+	// Finds bubbles near a tap. Items are ring slots, and cells are as wide
+	// as the biggest bubble, so any bubble under the finger has its center
+	// in the tapped cell or one of its neighbors.
+	private final SpatialHash grid;
+	
+	// bubbles popped by taps since the last update, sent out with the
+	// next batch of pops
+	private final PopEvents tapPops = new PopEvents();
+	
+	// set when bubbles are added or popped, so the next update publishes
+	private boolean changed;
+	
+	// The bubbles as the renderer should draw them, sized for the time of
+	// the update that published them. Bubbles are in birth order. The
+	// renderer always gets the newest one and never waits on LOCK.
+	private final TripleBuffer<CircleBuffer> snapshots = 
+		new TripleBuffer<CircleBuffer>(new CircleBuffer(64), 
+				new CircleBuffer(64), new CircleBuffer(64));
 	
-	private final List<MediaPlayer> players = new LinkedList<MediaPlayer>();
-	private boolean running = false;
+	// ARGB color written into every snapshot
+	private volatile int bubbleColor = 0xffffffff;
+
+    private final Clock clock;
+    
+    // true once an update finds no bubbles left, so the game loop can stop
+    // until one is added
+    private volatile boolean settled;
+    private final WakeSignal wakeSignal = new WakeSignal();
+	
+	public final Object LOCK = new Object();
+	
+	public BubblesModel() {
+		this(Clock.SYSTEM);
+	}
 	
-	public static final class Bubble {
-		float x, y, radius;
+	public BubblesModel(Clock clock) {
+		this.clock = clock;
 		
-		public Bubble(float x, float y) {
-			this.x = x;
-			this.y = y;
-			radius = INITIAL_RADIUS;
+		final int capacity = 64;
+		bubbleX = new float[capacity];
+		bubbleY = new float[capacity];
+		birthNanos = new long[capacity];
+		bubbleId = new int[capacity];
+		alive = new boolean[capacity];
+		grid = new SpatialHash(MAX_RADIUS, capacity);
+	}
+	
+	/**
+	 * @return every update's pops are sent here as one batch.
+	 */
+	public PopEventStream getPopEvents() {
+		return popEvents;
+	}
+	
+	/**
+	 * Returns the bubbles from the newest update. Nothing is copied or
+	 * allocated, and the buffer stays valid until the next call. Only call
+	 * this from the thread that draws.
+	 */
+	public CircleBuffer acquireBubbles() {
+		snapshots.acquire();
+		return snapshots.getFront();
+	}
+	
+	/**
+	 * @param argb the color bubbles are drawn in from the next update on.
+	 */
+	public void setBubbleColor(int argb) {
+		bubbleColor = argb;
+		synchronized (LOCK) {
+			changed = true;
 		}
+		wakeSignal.wake();
 	}
 	
-	private final List<Bubble> bubbles = new LinkedList<Bubble>();
+	public void addBubble(float x, float y) {
+		long now = clock.nanoTime();
+		synchronized (LOCK) {
+			insert(x, y, now);
+			changed = true;
+		}
+		wakeSignal.wake();
+	}
 	
-
-    private volatile long lastTimeMs = -1;
+	/**
+	 * Adds the first <code>n</code> bubbles from the given arrays, all born
+	 * now. Takes the lock once for the whole batch, so it's cheaper than
+	 * calling {@link #addBubble(float, float)} in a loop.
+	 */
+	public void addBubbles(float[] xs, float[] ys, int n) {
+		if (n <= 0) {
+			return;
+		}
+		long now = clock.nanoTime();
+		synchronized (LOCK) {
+			for (int i = 0; i < n; i++) {
+				insert(xs[i], ys[i], now);
+			}
+			changed = true;
+		}
+		wakeSignal.wake();
+	}
 	
-	public final Object LOCK = new Object();
+	/**
+	 * Puts a bubble at the tail of the ring. Caller must hold LOCK.
+	 */
+	private void insert(float x, float y, long now) {
+		if (count == bubbleX.length) {
+			grow();
+		}
+		int slot = (head + count) & (bubbleX.length - 1);
+		bubbleX[slot] = x;
+		bubbleY[slot] = y;
+		birthNanos[slot] = now;
+		bubbleId[slot] = nextId++;
+		alive[slot] = true;
+		grid.update(slot, x, y);
+		count++;
+		liveCount++;
+	}
 	
-	public BubblesModel() {		
+	/**
+	 * Pops the topmost (newest) bubble under the given point, if there is
+	 * one. Only the few bubbles near the point are looked at.
+	 * 
+	 * @return true if a bubble popped.
+	 */
+	public boolean popBubbleAt(float x, float y) {
+		long now = clock.nanoTime();
+		synchronized (LOCK) {
+			int hit = findBubbleAt(x, y, now);
+			if (hit < 0) {
+				return false;
+			}
+			
+			long age = now - birthNanos[hit];
+			tapPops.add(bubbleX[hit], bubbleY[hit], 
+					INITIAL_RADIUS + age * RADIUS_CHANGE_PER_NANO, now);
+			alive[hit] = false;
+			grid.remove(hit);
+			liveCount--;
+			changed = true;
+		}
+		wakeSignal.wake();
+		return true;
 	}
 	
-	public void onResume(Context context) {
+	/**
+	 * @return true if there is a bubble under the given point. Looks at the
+	 *         same few bubbles as {@link #popBubbleAt(float, float)}, but
+	 *         leaves them alone.
+	 */
+	public boolean isBubbleAt(float x, float y) {
+		long now = clock.nanoTime();
 		synchronized (LOCK) {
-			for (int i=0; i<4; i++) {
-				MediaPlayer mp = MediaPlayer.create(context, R.raw.pop);
-				mp.setVolume(1f, 1f);
-				players.add(mp);
-				try {
-					mp.setLooping(false);
-					mp.setOnCompletionListener(this);
-					
-					// TODO: there is a serious bug here. After a few seconds of
-					// inactivity, we see this in LogCat:
-					//   AudioHardwareMSM72xx Going to standby 
-					// then the sounds don't play until you click several more
-					// times, then it starts working again
-					
-				} catch (Exception e) {
-					e.printStackTrace();
-					players.remove(mp);
+			return findBubbleAt(x, y, now) >= 0;
+		}
+	}
+	
+	/**
+	 * @return the ring slot of the newest live bubble under the point, or
+	 *         -1. Caller must hold LOCK.
+	 */
+	private int findBubbleAt(float x, float y, long now) {
+		final SpatialHash g = grid;
+		final int mask = bubbleX.length - 1;
+		int cellX = g.cell(x);
+		int cellY = g.cell(y);
+		int hit = -1;
+		// how far the hit is from the head. Bubbles from one batch share a
+		// birth time, so go by ring order, which is also the order they
+		// are drawn in.
+		int hitOrder = -1;
+		
+		for (int dy = -1; dy <= 1; dy++) {
+			for (int dx = -1; dx <= 1; dx++) {
+				// a bucket may come up twice if two cells share it,
+				// which is harmless here
+				int bucket = g.bucket(cellX + dx, cellY + dy);
+				for (int i = g.first(bucket); i >= 0; i = g.next(i)) {
+					long age = now - birthNanos[i];
+					if (age > LIFETIME_NANOS) {
+						// about to pop anyway
+						continue;
+					}
+					float r = INITIAL_RADIUS + age * RADIUS_CHANGE_PER_NANO;
+					float distX = bubbleX[i] - x;
+					float distY = bubbleY[i] - y;
+					int order = (i - head) & mask;
+					if (distX * distX + distY * distY <= r * r
+							&& order > hitOrder) {
+						hit = i;
+						hitOrder = order;
+					}
 				}
 			}
-			running = true;
 		}
+		return hit;
 	}
 	
-	public void onPause(Context context) {
-		synchronized (LOCK) {
-			running = false;
-			for (MediaPlayer p : players) {
-				p.release();
+	/**
+	 * Doubles the ring, dropping dead bubbles and unwrapping it so the head
+	 * ends up at slot 0. Caller must hold LOCK.
+	 */
+	private void grow() {
+		int capacity = bubbleX.length * 2;
+		float[] newX = new float[capacity];
+		float[] newY = new float[capacity];
+		long[] newBirth = new long[capacity];
+		int[] newId = new int[capacity];
+		int n = copyRing(newX, newY, newBirth, newId);
+		bubbleX = newX;
+		bubbleY = newY;
+		birthNanos = newBirth;
+		bubbleId = newId;
+		alive = new boolean[capacity];
+		head = 0;
+		count = n;
+		
+		// every bubble has a new slot, so index them again
+		grid.ensureCapacity(capacity);
+		grid.clear();
+		for (int i = 0; i < n; i++) {
+			alive[i] = true;
+			grid.update(i, newX[i], newY[i]);
+		}
+	}
+	
+	/**
+	 * Copies the live bubbles, oldest first, to the start of the given
+	 * arrays. <code>dstId</code> may be null. Caller must hold LOCK.
+	 * 
+	 * @return how many were copied.
+	 */
+	private int copyRing(float[] dstX, float[] dstY, long[] dstBirth,
+			int[] dstId) {
+		final int mask = bubbleX.length - 1;
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			int slot = (head + i) & mask;
+			if (alive[slot]) {
+				dstX[n] = bubbleX[slot];
+				dstY[n] = bubbleY[slot];
+				dstBirth[n] = birthNanos[slot];
+				if (dstId != null) {
+					dstId[n] = bubbleId[slot];
+				}
+				n++;
 			}
-			players.clear();
 		}
+		return n;
 	}
 	
-	public List<Bubble> getBubbles() {
+	/**
+	 * Fills the back snapshot with the live bubbles, sized for the given
+	 * time, and hands it to the renderer. Caller must hold LOCK.
+	 */
+	private void publish(long now) {
+		CircleBuffer dst = snapshots.getBack();
+		dst.count = 0;
+		dst.ensureCapacity(liveCount);
+		final float[] x = dst.x, y = dst.y, radius = dst.radius;
+		final int[] color = dst.color, id = dst.id;
+		final int lColor = bubbleColor;
+		final int mask = bubbleX.length - 1;
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			int slot = (head + i) & mask;
+			if (alive[slot]) {
+				x[n] = bubbleX[slot];
+				y[n] = bubbleY[slot];
+				radius[n] = INITIAL_RADIUS 
+						+ (now - birthNanos[slot]) * RADIUS_CHANGE_PER_NANO;
+				color[n] = lColor;
+				id[n] = bubbleId[slot];
+				n++;
+			}
+		}
+		dst.count = n;
+		snapshots.publish();
+	}
+	
+	// saved state: magic, version, bubble count, then the x, y and age
+	// arrays, oldest bubble first
+	private static final int STATE_MAGIC = 0x42554253; // "BUBS"
+	private static final int STATE_VERSION = 1;
+	private static final int STATE_HEADER_BYTES = 12;
+	private static final int STATE_BYTES_PER_BUBBLE = 4 + 4 + 8;
+	
+	/**
+	 * Writes every live bubble. Birth times are saved as ages, since
+	 * nanoTime means nothing to another process, so bubbles pick up where
+	 * they left off.
+	 */
+	public ByteBuffer saveState() {
+		long now = clock.nanoTime();
 		synchronized (LOCK) {
-			return new ArrayList<Bubble>(bubbles);
+			float[] x = new float[liveCount];
+			float[] y = new float[liveCount];
+			long[] age = new long[liveCount];
+			int n = copyRing(x, y, age, null);
+			for (int i = 0; i < n; i++) {
+				age[i] = now - age[i];
+			}
+			
+			ByteBuffer out = ByteBuffer.allocate(
+					STATE_HEADER_BYTES + n * STATE_BYTES_PER_BUBBLE);
+			out.order(ByteOrder.nativeOrder());
+			out.putInt(STATE_MAGIC).putInt(STATE_VERSION).putInt(n);
+			out.asFloatBuffer().put(x, 0, n);
+			out.position(out.position() + n * 4);
+			out.asFloatBuffer().put(y, 0, n);
+			out.position(out.position() + n * 4);
+			out.asLongBuffer().put(age, 0, n);
+			out.position(out.position() + n * 8);
+			out.flip();
+			return out;
 		}
 	}
 	
-	public void addBubble(float x, float y) {
+	public void restoreState(ByteBuffer in) {
+		if (in.remaining() < STATE_HEADER_BYTES || in.getInt() != STATE_MAGIC) {
+			throw new IllegalArgumentException("not a bubbles state");
+		}
+		int version = in.getInt();
+		if (version != STATE_VERSION) {
+			throw new IllegalArgumentException("unknown state version " + version);
+		}
+		int n = in.getInt();
+		if (n < 0 || in.remaining() < (long) n * STATE_BYTES_PER_BUBBLE) {
+			throw new IllegalArgumentException("truncated state, " + n + " bubbles");
+		}
+		
+		// keep the ring a power of two
+		int capacity = 64;
+		while (capacity < n) {
+			capacity *= 2;
+		}
+		float[] x = new float[capacity];
+		float[] y = new float[capacity];
+		long[] birth = new long[capacity];
+		in.asFloatBuffer().get(x, 0, n);
+		in.position(in.position() + n * 4);
+		in.asFloatBuffer().get(y, 0, n);
+		in.position(in.position() + n * 4);
+		in.asLongBuffer().get(birth, 0, n);
+		in.position(in.position() + n * 8);
+		
+		long now = clock.nanoTime();
+		for (int i = 0; i < n; i++) {
+			birth[i] = now - birth[i];
+		}
+		
 		synchronized (LOCK) {
-			bubbles.add(new Bubble(x,y));
+			bubbleX = x;
+			bubbleY = y;
+			birthNanos = birth;
+			bubbleId = new int[capacity];
+			alive = new boolean[capacity];
+			head = 0;
+			count = n;
+			liveCount = n;
+			tapPops.clear();
+			grid.ensureCapacity(capacity);
+			grid.clear();
+			for (int i = 0; i < n; i++) {
+				bubbleId[i] = nextId++;
+				alive[i] = true;
+				grid.update(i, x[i], y[i]);
+			}
+			changed = true;
 		}
+		wakeSignal.wake();
 	}
 	
 	public void setSize(int width, int height) {
 		// TODO ignore this for now...we could hide bubbles that
 		// are out of bounds, for example
+		wakeSignal.wake();
+	}
+	
+	/**
+	 * @return true if there were no bubbles left after the last update.
+	 *         There is no point calling updateBubbles() again until the
+	 *         wake signal fires.
+	 */
+	public boolean isSettled() {
+		return settled;
+	}
+	
+	/**
+	 * @return fired when a bubble is added or tapped, or the screen is
+	 *         resized.
+	 */
+	public WakeSignal getWakeSignal() {
+		return wakeSignal;
 	}
 
+    /**
+     * Pops every bubble that has outlived its lifetime, and sends out those
+     * popped by taps. Finding the pops only looks at bubbles that actually
+     * pop. While any bubbles are left, a snapshot sized for this moment is
+     * published for the renderer.
+     */
     public void updateBubbles() {
-        long curTime = System.currentTimeMillis();
-        if (lastTimeMs < 0) {
-            lastTimeMs = curTime;
-            // this is the first reading, so don't change anything
-            return;
-        }
-        long elapsedMs = curTime - lastTimeMs;
-        lastTimeMs = curTime;
-        
-        final float radiusChange = elapsedMs * RADIUS_CHANGE_PER_MS;
-
-        MediaPlayer mp = null;
+        long curTime = clock.nanoTime();
+        boolean popped = false;
+        PopEvents pops = popEvents.startBatch();
 
     	synchronized (LOCK) {
-    		Set<Bubble> victims = new HashSet<Bubble>();
+    		for (int i = 0; i < tapPops.count; i++) {
+    			pops.add(tapPops.x[i], tapPops.y[i], tapPops.radius[i], 
+    					tapPops.timeNanos[i]);
+    		}
+    		tapPops.clear();
     		
-    		for (Bubble b : bubbles) {
-    			b.radius += radiusChange;
-    			if (b.radius > MAX_RADIUS) {
-    				victims.add(b);
+    		final int mask = bubbleX.length - 1;
+    		while (count > 0 && (!alive[head] 
+    				|| curTime - birthNanos[head] > LIFETIME_NANOS)) {
+    			if (alive[head]) {
+    				pops.add(bubbleX[head], bubbleY[head], MAX_RADIUS, 
+    						birthNanos[head] + LIFETIME_NANOS);
+    				alive[head] = false;
+    				grid.remove(head);
+    				liveCount--;
+    				popped = true;
     			}
+    			// dead ones were already sent when they were tapped
+    			head = (head + 1) & mask;
+    			count--;
     		}
+    		settled = liveCount == 0;
     		
-    		if (victims.size() > 0) {
-    			bubbles.removeAll(victims);
-    			// since a bubble popped, try to get a media player
-    			if (!players.isEmpty()) {    				
-    				mp = players.remove(0);
-    			}
+    		// the rest keep growing, so publish as long as there are any
+    		if (liveCount > 0 || popped || changed) {
+    			publish(curTime);
+    			changed = false;
     		}
     	}
     	
-    	if (mp != null) {
-    		//System.out.println("**pop**");
-    		mp.start(); 
-    	}
+    	// listeners run outside the lock, so they can't hold up drawing
+    	popEvents.publish(curTime);
     }
-
-	public void onCompletion(MediaPlayer mp) {
-		synchronized (LOCK) {
-			if (running) {
-	    		mp.seekTo(0);
-				//System.out.println("on completion!");
-	    		// return the player to the pool of available instances
-				players.add(mp);
-			}
-		}
-	}
 }
@@ -0,0 +1,105 @@
+package com.stuffthathappens.games;
+
+/**
+ * Formats numbers into a char array instead of a new String, for labels
+ * that change many times a second. Hand the result to
+ * <code>TextView.setText(char[], int, int)</code> or
+ * <code>Canvas.drawText(char[], ...)</code> and nothing is allocated.
+ * <p>
+ * Each method writes at <code>pos</code> and returns the position just
+ * after what it wrote. The caller makes sure the array is big enough.
+ */
+public class CharFormat {
+	private static final long[] POWERS_OF_TEN = { 1L, 10L, 100L, 1000L,
+			10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L };
+
+	/**
+	 * The most decimals a float can be written with.
+	 */
+	public static final int MAX_DECIMALS = POWERS_OF_TEN.length - 1;
+
+	private CharFormat() {
+	}
+
+	public static int append(String s, char[] out, int pos) {
+		s.getChars(0, s.length(), out, pos);
+		return pos + s.length();
+	}
+
+	public static int append(long value, char[] out, int pos) {
+		if (value < 0) {
+			out[pos++] = '-';
+			if (value == Long.MIN_VALUE) {
+				// can't be negated
+				return append("9223372036854775808", out, pos);
+			}
+			value = -value;
+		}
+		int digits = 1;
+		for (long v = value / 10; v > 0; v /= 10) {
+			digits++;
+		}
+		for (int i = pos + digits - 1; i >= pos; i--) {
+			out[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		return pos + digits;
+	}
+
+	/**
+	 * Writes a float with a fixed number of decimals, rounded half up. Only
+	 * negative values get a sign. Values too big for a long after scaling
+	 * come out as <code>Inf</code>.
+	 *
+	 * @param decimals 0 to {@link #MAX_DECIMALS}.
+	 */
+	public static int append(float value, int decimals, char[] out, int pos) {
+		if (value != value) {
+			return append("NaN", out, pos);
+		}
+		if (value < 0) {
+			out[pos++] = '-';
+		}
+		return appendMagnitude(value, decimals, out, pos);
+	}
+
+	/**
+	 * Writes a float with a sign and a fixed number of decimals, rounded
+	 * half up, like <code>String.format("%+.5f", value)</code> does for
+	 * the sensor values this is used for. Values too big for a long after
+	 * scaling come out as <code>+Inf</code> or <code>-Inf</code>.
+	 *
+	 * @param decimals 0 to {@link #MAX_DECIMALS}.
+	 */
+	public static int appendSigned(float value, int decimals, char[] out,
+			int pos) {
+		if (value != value) {
+			return append("NaN", out, pos);
+		}
+		boolean negative = value < 0 || (value == 0 && 1 / value < 0);
+		out[pos++] = negative ? '-' : '+';
+		return appendMagnitude(value, decimals, out, pos);
+	}
+
+	private static int appendMagnitude(float value, int decimals, char[] out,
+			int pos) {
+		long scale = POWERS_OF_TEN[decimals];
+		double scaled = Math.abs((double) value) * scale + 0.5;
+		if (scaled >= Long.MAX_VALUE) {
+			return append("Inf", out, pos);
+		}
+		long fixed = (long) scaled;
+
+		pos = append(fixed / scale, out, pos);
+		if (decimals > 0) {
+			out[pos++] = '.';
+			long fraction = fixed % scale;
+			// leading zeros of the fraction
+			for (int i = decimals - 1; i > 0 && fraction < POWERS_OF_TEN[i]; i--) {
+				out[pos++] = '0';
+			}
+			pos = append(fraction, out, pos);
+		}
+		return pos;
+	}
+}
@@ -0,0 +1,62 @@
+package com.stuffthathappens.games;
+
+/**
+ * A reusable list of circles stored as parallel arrays. The models copy
+ * their state into one of these so the drawing code can walk it without
+ * holding a lock and without creating an object per circle. Each circle is
+ * one draw command: where, how big, and what color.
+ * <p>
+ * Each circle also has an id, which stays the same for as long as the
+ * thing it draws is around, and which grows from each circle to the next.
+ * That lets two frames be lined up circle by circle even when some were
+ * removed from the front, see
+ * {@link DamageTracker#addChanges(CircleBuffer, CircleBuffer)}.
+ */
+public class CircleBuffer {
+	public int count;
+	public float[] x, y, radius;
+	// ARGB, like android.graphics.Color
+	public int[] color;
+	// stable key, increasing through the buffer
+	public int[] id;
+
+	public CircleBuffer() {
+		this(16);
+	}
+
+	public CircleBuffer(int capacity) {
+		x = new float[capacity];
+		y = new float[capacity];
+		radius = new float[capacity];
+		color = new int[capacity];
+		id = new int[capacity];
+	}
+
+	/**
+	 * Makes sure there is room for at least <code>capacity</code> circles.
+	 * The current contents are kept. Arrays grow geometrically so a
+	 * buffer that is reused every frame stops allocating quickly.
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity > x.length) {
+			int newCapacity = Math.max(capacity, x.length * 2);
+			x = grow(x, count, newCapacity);
+			y = grow(y, count, newCapacity);
+			radius = grow(radius, count, newCapacity);
+			color = grow(color, count, newCapacity);
+			id = grow(id, count, newCapacity);
+		}
+	}
+
+	static float[] grow(float[] src, int used, int newCapacity) {
+		float[] dst = new float[newCapacity];
+		System.arraycopy(src, 0, dst, 0, used);
+		return dst;
+	}
+
+	static int[] grow(int[] src, int used, int newCapacity) {
+		int[] dst = new int[newCapacity];
+		System.arraycopy(src, 0, dst, 0, used);
+		return dst;
+	}
+}
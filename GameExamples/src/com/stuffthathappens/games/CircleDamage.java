@@ -0,0 +1,143 @@
+package com.stuffthathappens.games;
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.view.SurfaceHolder;
+
+/**
+ * Locks only the part of a surface that changed since the last frame. It
+ * remembers the circles it was last given, and the damage is where they
+ * were plus where the new ones are, for the circles that changed, worked
+ * out by a {@link DamageTracker}. When too much of the screen changed, the
+ * whole surface is locked instead.
+ * <p>
+ * Each frame, call {@link #update(CircleBuffer)} and, if it returns true,
+ * {@link #lock(SurfaceHolder)}. They are separate so the damage pass and
+ * the lock can be timed on their own. After a lock, the caller must clear
+ * and redraw everything inside {@link #getDirty()}. The surface keeps the
+ * rest of the last frame.
+ */
+public class CircleDamage {
+	// past this share of the screen a full redraw is cheaper
+	private static final float FULL_COVERAGE = 0.5f;
+
+	private final DamageTracker tracker = new DamageTracker(FULL_COVERAGE);
+	private final CircleBuffer previous = new CircleBuffer();
+	// what update() was last given, remembered once it gets drawn
+	private CircleBuffer current;
+	private final Rect dirty = new Rect();
+
+	// redrawn every frame, such as an overlay
+	private volatile boolean pinned;
+	private volatile int pinnedLeft, pinnedTop, pinnedRight, pinnedBottom;
+
+	/**
+	 * Call when the surface changes size. The next frame is a full one.
+	 */
+	public synchronized void setSize(int width, int height) {
+		tracker.setSize(width, height);
+	}
+
+	/**
+	 * Makes the next frame a full one.
+	 */
+	public synchronized void invalidateAll() {
+		tracker.invalidateAll();
+	}
+
+	/**
+	 * Marks an area to be redrawn every frame, for things that change on
+	 * their own like the timing overlay. Only one area is kept.
+	 */
+	public void setPinnedArea(int left, int top, int right, int bottom) {
+		pinnedLeft = left;
+		pinnedTop = top;
+		pinnedRight = right;
+		pinnedBottom = bottom;
+		pinned = true;
+	}
+
+	public void clearPinnedArea() {
+		pinned = false;
+		// whatever was drawn there has to go
+		invalidateAll();
+	}
+
+	/**
+	 * Works out the damage between the last frame drawn and these circles,
+	 * plus the pinned area if there is one.
+	 *
+	 * @return false if no circle changed and nothing is pinned, in which
+	 *         case there is nothing to lock, draw or post.
+	 */
+	public synchronized boolean update(CircleBuffer circles) {
+		current = circles;
+		tracker.reset();
+		tracker.addChanges(previous, circles);
+		if (pinned) {
+			tracker.add(pinnedLeft, pinnedTop, pinnedRight, pinnedBottom);
+		}
+		return !tracker.isEmpty();
+	}
+
+	/**
+	 * Locks the part of the surface found by the last
+	 * {@link #update(CircleBuffer)}.
+	 *
+	 * @return null if the surface isn't ready, in which case there is
+	 *         nothing to draw or post.
+	 */
+	public synchronized Canvas lock(SurfaceHolder holder) {
+		Canvas c;
+		if (tracker.isFullFrame()) {
+			c = holder.lockCanvas();
+			if (c != null) {
+				dirty.set(0, 0, c.getWidth(), c.getHeight());
+			}
+		} else {
+			dirty.set(tracker.getBoundsLeft(), tracker.getBoundsTop(),
+					tracker.getBoundsRight(), tracker.getBoundsBottom());
+			// this may grow dirty, if the surface can't keep the old pixels
+			c = holder.lockCanvas(dirty);
+		}
+
+		if (c == null) {
+			// nothing got drawn, so next time start from scratch
+			tracker.invalidateAll();
+		} else {
+			tracker.frameDrawn();
+			remember(current);
+		}
+		return c;
+	}
+
+	/**
+	 * @return the area the caller has to redraw. Only valid after lock()
+	 *         returned a canvas, and only on the drawing thread.
+	 */
+	public Rect getDirty() {
+		return dirty;
+	}
+
+	/**
+	 * @return true if the circle overlaps the dirty area, so it needs
+	 *         drawing.
+	 */
+	public boolean isDirty(float x, float y, float radius) {
+		// same slack as when the damage was added
+		float reach = radius + DamageTracker.CIRCLE_SLACK;
+		return x + reach >= dirty.left && x - reach < dirty.right
+				&& y + reach >= dirty.top && y - reach < dirty.bottom;
+	}
+
+	private void remember(CircleBuffer circles) {
+		final int n = circles.count;
+		previous.ensureCapacity(n);
+		System.arraycopy(circles.x, 0, previous.x, 0, n);
+		System.arraycopy(circles.y, 0, previous.y, 0, n);
+		System.arraycopy(circles.radius, 0, previous.radius, 0, n);
+		System.arraycopy(circles.color, 0, previous.color, 0, n);
+		System.arraycopy(circles.id, 0, previous.id, 0, n);
+		previous.count = n;
+	}
+}
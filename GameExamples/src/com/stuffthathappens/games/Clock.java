@@ -0,0 +1,21 @@
+package com.stuffthathappens.games;
+
+/**
+ * Where the models get the time from. Anything other than
+ * {@link #SYSTEM} is for running the simulation off the device or faster
+ * than real time.
+ */
+public interface Clock {
+	
+	/**
+	 * @return a monotonic time in nanoseconds, with an arbitrary origin
+	 *         like {@link System#nanoTime()}.
+	 */
+	long nanoTime();
+	
+	Clock SYSTEM = new Clock() {
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+	};
+}
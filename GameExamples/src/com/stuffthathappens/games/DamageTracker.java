@@ -0,0 +1,176 @@
+package com.stuffthathappens.games;
+
+/**
+ * Works out which part of the screen changed since the last frame, so
+ * only that has to be cleared and drawn again. Call {@link #reset()} at
+ * the start of a frame, then {@link #add(int, int, int, int)} for every
+ * area that changed, or {@link #addChanges(CircleBuffer, CircleBuffer)} to
+ * compare two frames of circles.
+ * <p>
+ * The damage is kept as one bounding rectangle, because that is all
+ * <code>SurfaceHolder.lockCanvas(Rect)</code> takes, and everything inside
+ * the locked rectangle has to be redrawn anyway. Once the bounds cover
+ * more than the given share of the screen, the tracker gives up and
+ * reports a full frame. Nothing is allocated once the tracker is created.
+ * <p>
+ * Rectangles use screen pixels, and right and bottom are exclusive.
+ */
+public class DamageTracker {
+	// extra pixels around each circle, for anti-aliasing and for sprites
+	// rounding the radius
+	static final int CIRCLE_SLACK = 2;
+
+	private final float fullCoverage;
+	private int width, height;
+	private boolean full = true;
+
+	private int boundsLeft, boundsTop, boundsRight, boundsBottom;
+
+	/**
+	 * @param fullCoverage when the bounds of the damage cover more than this
+	 *        share of the screen, 0 to 1, the whole frame is redrawn.
+	 */
+	public DamageTracker(float fullCoverage) {
+		this.fullCoverage = fullCoverage;
+		reset();
+	}
+
+	/**
+	 * Sets the screen size. The next frame is a full one.
+	 */
+	public void setSize(int width, int height) {
+		this.width = width;
+		this.height = height;
+		full = true;
+	}
+
+	/**
+	 * Starts a new frame with nothing damaged, unless the whole screen was
+	 * invalidated and that frame hasn't been drawn yet.
+	 */
+	public void reset() {
+		boundsLeft = boundsTop = Integer.MAX_VALUE;
+		boundsRight = boundsBottom = Integer.MIN_VALUE;
+	}
+
+	/**
+	 * Makes the current frame, or the next one if called between frames,
+	 * a full one.
+	 */
+	public void invalidateAll() {
+		full = true;
+	}
+
+	/**
+	 * Marks a rectangle as changed. Parts outside the screen are ignored.
+	 */
+	public void add(int l, int t, int r, int b) {
+		if (full) {
+			return;
+		}
+		l = Math.max(l, 0);
+		t = Math.max(t, 0);
+		r = Math.min(r, width);
+		b = Math.min(b, height);
+		if (l >= r || t >= b) {
+			return;
+		}
+
+		boundsLeft = Math.min(boundsLeft, l);
+		boundsTop = Math.min(boundsTop, t);
+		boundsRight = Math.max(boundsRight, r);
+		boundsBottom = Math.max(boundsBottom, b);
+		long boundsArea = (long) (boundsRight - boundsLeft)
+				* (boundsBottom - boundsTop);
+		if (boundsArea > fullCoverage * width * height) {
+			full = true;
+		}
+	}
+
+	/**
+	 * Compares two frames of circles, lined up by id, and marks where each
+	 * changed circle was and where it is now. Circles with the same
+	 * position, radius and color in both frames are skipped, so things at
+	 * rest cost nothing. Circles only in one of the frames were added or
+	 * removed and are always marked. Since ids increase through both
+	 * buffers, one pass over each is enough, and removing the oldest
+	 * bubble only marks that bubble.
+	 */
+	public void addChanges(CircleBuffer before, CircleBuffer after) {
+		int i = 0, j = 0;
+		while ((i < before.count || j < after.count) && !full) {
+			// a difference, so ids may wrap around
+			int order;
+			if (i >= before.count) {
+				order = 1;
+			} else if (j >= after.count) {
+				order = -1;
+			} else {
+				order = before.id[i] - after.id[j];
+			}
+
+			if (order < 0) {
+				// gone
+				addCircle(before, i++);
+			} else if (order > 0) {
+				// new
+				addCircle(after, j++);
+			} else {
+				if (before.x[i] != after.x[j] || before.y[i] != after.y[j]
+						|| before.radius[i] != after.radius[j]
+						|| before.color[i] != after.color[j]) {
+					addCircle(before, i);
+					addCircle(after, j);
+				}
+				i++;
+				j++;
+			}
+		}
+	}
+
+	private void addCircle(CircleBuffer circles, int i) {
+		float x = circles.x[i], y = circles.y[i], r = circles.radius[i];
+		add((int) (x - r) - CIRCLE_SLACK, (int) (y - r) - CIRCLE_SLACK,
+				(int) (x + r) + CIRCLE_SLACK + 1,
+				(int) (y + r) + CIRCLE_SLACK + 1);
+	}
+
+	/**
+	 * @return true if the whole screen has to be drawn this frame. Stays
+	 *         true until {@link #frameDrawn()} is called.
+	 */
+	public boolean isFullFrame() {
+		return full;
+	}
+
+	/**
+	 * Call once the frame has been drawn, so the next one can be partial
+	 * again.
+	 */
+	public void frameDrawn() {
+		full = false;
+	}
+
+	/**
+	 * @return true if nothing changed.
+	 */
+	public boolean isEmpty() {
+		return !full && boundsRight < boundsLeft;
+	}
+
+	public int getBoundsLeft() {
+		return full ? 0 : boundsLeft;
+	}
+
+	public int getBoundsTop() {
+		return full ? 0 : boundsTop;
+	}
+
+	public int getBoundsRight() {
+		return full ? width : boundsRight;
+	}
+
+	public int getBoundsBottom() {
+		return full ? height : boundsBottom;
+	}
+}
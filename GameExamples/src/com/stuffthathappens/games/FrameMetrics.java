@@ -0,0 +1,125 @@
+package com.stuffthathappens.games;
+
+import java.util.concurrent.TimeUnit;
+
+import android.util.Log;
+
+/**
+ * Records where frame time goes. Each phase of a frame, like locking the
+ * canvas or updating the model, has its own {@link Histogram} of durations
+ * in nanoseconds. Recording never allocates, so it can stay on all the
+ * time. Formatting for the on-screen overlay doesn't allocate either.
+ */
+public class FrameMetrics {
+	public static final int LOCK_CANVAS = 0;
+	public static final int DRAW = 1;
+	public static final int UNLOCK_AND_POST = 2;
+	public static final int UPDATE = 3;
+	public static final int SLEEP = 4;
+	// working out what changed on screen, before the canvas is locked
+	public static final int DAMAGE = 5;
+	public static final int PHASES = 6;
+
+	private static final String[] PHASE_NAMES = { "lock", "draw", "post",
+			"update", "sleep", "damage" };
+
+	private final Histogram[] phases = new Histogram[PHASES];
+	private volatile long frames;
+	private volatile int entities;
+
+	public FrameMetrics() {
+		for (int i = 0; i < PHASES; i++) {
+			phases[i] = new Histogram();
+		}
+	}
+
+	public void record(int phase, long nanos) {
+		phases[phase].record(nanos);
+	}
+
+	/**
+	 * Called once per frame drawn. Only one thread may call this.
+	 */
+	public void countFrame() {
+		frames++;
+	}
+
+	/**
+	 * @param count how many balls, bubbles, etc. the last frame had.
+	 */
+	public void setEntityCount(int count) {
+		entities = count;
+	}
+
+	public Histogram getHistogram(int phase) {
+		return phases[phase];
+	}
+
+	public long getFrameCount() {
+		return frames;
+	}
+
+	public int getEntityCount() {
+		return entities;
+	}
+
+	/**
+	 * Clears the histograms so the next report only covers what happens
+	 * from now on. The frame count keeps going.
+	 */
+	public void reset() {
+		for (int i = 0; i < PHASES; i++) {
+			phases[i].reset();
+		}
+	}
+
+	/**
+	 * Writes one line per phase to the log.
+	 */
+	public void log(String tag) {
+		for (int i = 0; i < PHASES; i++) {
+			Histogram h = phases[i];
+			Log.i(tag, PHASE_NAMES[i] + ": n=" + h.getCount()
+					+ " p50=" + micros(h.getPercentile(0.5)) + "us"
+					+ " p99=" + micros(h.getPercentile(0.99)) + "us"
+					+ " max=" + micros(h.getMax()) + "us");
+		}
+		Log.i(tag, "frames=" + frames + " entities=" + entities);
+	}
+
+	/**
+	 * Writes a phase summary like <code>draw 120 450 1300us</code> (p50,
+	 * p99 and max) into <code>out</code>, which must hold at least 64
+	 * chars.
+	 *
+	 * @return the number of chars written.
+	 */
+	public int formatPhase(int phase, char[] out) {
+		Histogram h = phases[phase];
+		int pos = CharFormat.append(PHASE_NAMES[phase], out, 0);
+		out[pos++] = ' ';
+		pos = CharFormat.append(micros(h.getPercentile(0.5)), out, pos);
+		out[pos++] = ' ';
+		pos = CharFormat.append(micros(h.getPercentile(0.99)), out, pos);
+		out[pos++] = ' ';
+		pos = CharFormat.append(micros(h.getMax()), out, pos);
+		return CharFormat.append("us", out, pos);
+	}
+
+	/**
+	 * Writes a line like <code>frames 1234 entities 56</code> into
+	 * <code>out</code>, which must hold at least 64 chars.
+	 *
+	 * @return the number of chars written.
+	 */
+	public int formatCounts(char[] out) {
+		int pos = CharFormat.append("frames ", out, 0);
+		pos = CharFormat.append(frames, out, pos);
+		pos = CharFormat.append(" entities ", out, pos);
+		return CharFormat.append(entities, out, pos);
+	}
+
+	private static long micros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+}
@@ -0,0 +1,203 @@
+package com.stuffthathappens.games;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The thread that drives a game. It calls {@link Game#update()} at a fixed
+ * rate, sleeping until the next update is due rather than for a fixed
+ * time, so the time spent working doesn't slow the game down. Drawing
+ * happens on a {@link RenderThread} that this loop starts and stops, and
+ * which is asked for a frame after every round of updates.
+ * <p>
+ * If updating falls behind, a few updates run back to back before a frame
+ * is asked for. If it is still behind after that the missed updates are
+ * dropped, since trying to catch up forever would freeze the screen.
+ * Models that step by elapsed time, like {@link BouncingBallModel}, don't
+ * lose any simulated time when this happens.
+ * <p>
+ * When the game says it has settled, the loop parks on the game's
+ * {@link WakeSignal} until something changes.
+ * <p>
+ * Update and sleep times go into a {@link FrameMetrics}, which is written
+ * to the log every few seconds and then reset.
+ */
+public class GameLoop extends Thread {
+
+	/**
+	 * What the loop drives. {@link #render()} is called on the render
+	 * thread, everything else on the loop thread.
+	 */
+	public interface Game {
+		/**
+		 * Advances the game to the current time.
+		 */
+		void update();
+
+		/**
+		 * Draws the newest state the model published. Runs at the same
+		 * time as {@link #update()}, so it must only touch snapshots.
+		 */
+		void render();
+
+		/**
+		 * @return true if nothing will change until the wake signal fires.
+		 */
+		boolean isSettled();
+
+		WakeSignal getWakeSignal();
+	}
+
+	// updates run back to back, without asking for a frame in between, at
+	// most this many times
+	private static final int MAX_UPDATES_PER_FRAME = 5;
+
+	private static final String TAG = "GameLoop";
+	private static final long LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+	private final Game game;
+	private final Clock clock;
+	private final FrameMetrics metrics;
+	private final long updateNanos;
+	private final RenderThread renderer;
+	private volatile boolean running = true;
+
+	// counters, only written by the loop thread
+	private volatile long updates;
+	private volatile long droppedUpdates;
+
+	public GameLoop(Game game, int updatesPerSecond, int framesPerSecond,
+			FrameMetrics metrics) {
+		this(game, updatesPerSecond, framesPerSecond, metrics, Clock.SYSTEM);
+	}
+
+	/**
+	 * @param updatesPerSecond how often {@link Game#update()} runs.
+	 * @param framesPerSecond how often {@link Game#render()} runs, at most.
+	 * @param metrics gets the update and sleep times, and a count of the
+	 *        frames drawn. The game can record its own phases there too.
+	 */
+	public GameLoop(Game game, int updatesPerSecond, int framesPerSecond,
+			FrameMetrics metrics, Clock clock) {
+		super("GameLoop");
+		if (updatesPerSecond < 1) {
+			throw new IllegalArgumentException("updatesPerSecond must be at least 1");
+		}
+		this.game = game;
+		this.clock = clock;
+		this.metrics = metrics;
+		this.updateNanos = TimeUnit.SECONDS.toNanos(1) / updatesPerSecond;
+		this.renderer = new RenderThread(game, framesPerSecond, metrics, clock);
+	}
+
+	public void run() {
+		renderer.start();
+		try {
+			loop();
+		} finally {
+			renderer.safeStop();
+		}
+	}
+
+	private void loop() {
+		long nextUpdate = clock.nanoTime();
+		long nextLog = nextUpdate + LOG_INTERVAL_NANOS;
+
+		while (running) {
+			try {
+				long now = clock.nanoTime();
+
+				int n = 0;
+				while (now >= nextUpdate && n < MAX_UPDATES_PER_FRAME) {
+					game.update();
+					updates++;
+					n++;
+					nextUpdate += updateNanos;
+					long end = clock.nanoTime();
+					metrics.record(FrameMetrics.UPDATE, end - now);
+					now = end;
+				}
+				if (now >= nextUpdate) {
+					// too far behind to catch up, start over from now
+					droppedUpdates += (now - nextUpdate) / updateNanos + 1;
+					nextUpdate = now + updateNanos;
+				}
+				if (n > 0) {
+					renderer.requestFrame();
+				}
+
+				if (game.isSettled()) {
+					// the last update drew the final state, sleep until
+					// something changes
+					game.getWakeSignal().park();
+					nextUpdate = clock.nanoTime();
+					continue;
+				}
+
+				if (now >= nextLog) {
+					metrics.log(TAG);
+					metrics.reset();
+					nextLog = now + LOG_INTERVAL_NANOS;
+				}
+
+				long start = clock.nanoTime();
+				long wait = nextUpdate - start;
+				if (wait > 0) {
+					TimeUnit.NANOSECONDS.sleep(wait);
+					metrics.record(FrameMetrics.SLEEP, clock.nanoTime() - start);
+				}
+			} catch (InterruptedException ie) {
+				running = false;
+			}
+		}
+	}
+
+	/**
+	 * Stops this thread and the render thread, and waits for both to end,
+	 * so nothing is drawing on the surface once this returns. Call it from
+	 * <code>surfaceDestroyed()</code>, never from the loop or render
+	 * thread.
+	 */
+	public void safeStop() {
+		running = false;
+		interrupt();
+		renderer.safeStop();
+
+		// a frame in progress finishes first, lockCanvas() can't be
+		// interrupted
+		boolean interrupted = false;
+		while (true) {
+			try {
+				join();
+				renderer.join();
+				break;
+			} catch (InterruptedException ie) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public long getUpdateCount() {
+		return updates;
+	}
+
+	public long getFrameCount() {
+		return renderer.getFrameCount();
+	}
+
+	/**
+	 * @return frames not drawn because a newer one came along first.
+	 */
+	public long getSkippedFrameCount() {
+		return renderer.getDroppedFrameCount();
+	}
+
+	/**
+	 * @return updates given up on because the loop was too far behind.
+	 */
+	public long getDroppedUpdateCount() {
+		return droppedUpdates;
+	}
+}
@@ -0,0 +1,176 @@
+package com.stuffthathappens.games;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Takes bounce events from the physics thread and turns them into
+ * vibrations on a thread of its own, so the physics step never waits on
+ * the {@link Haptics} backend.
+ * <p>
+ * Events go into a fixed size ring. {@link #post(float)} never blocks. If
+ * the ring is full the event is dropped and counted. The dispatcher
+ * vibrates for the first event it sees. Events arriving within the
+ * coalescing window after a vibration are merged into one, which fires
+ * when the window ends with the strongest impact among them. Harder
+ * impacts give longer vibrations.
+ * <p>
+ * There must only be one thread calling {@link #post(float)}.
+ */
+public class HapticDispatcher {
+	private static final int CAPACITY = 64;
+	private static final int MASK = CAPACITY - 1;
+
+	// vibration length for a given impact speed, in meters/second
+	private static final long MIN_VIBRATE_MS = 10;
+	private static final long MAX_VIBRATE_MS = 40;
+	private static final float MS_PER_IMPACT_SPEED = 0.5f;
+
+	private final Haptics backend;
+	private final long windowNanos;
+	private final Clock clock;
+
+	private final float[] impacts = new float[CAPACITY];
+	// next slot to write, only written by the posting thread
+	private volatile long tail;
+	// next slot to read, only written by the dispatcher thread
+	private volatile long head;
+
+	private volatile boolean running;
+	private volatile Thread thread;
+
+	// counters, each only written by one thread
+	private volatile long posted;
+	private volatile long dropped;
+	private volatile long merged;
+	private volatile long vibrations;
+
+	/**
+	 * @param backend does the actual vibrating.
+	 * @param windowMs bounces this close together are felt as one.
+	 */
+	public HapticDispatcher(Haptics backend, long windowMs) {
+		this(backend, windowMs, Clock.SYSTEM);
+	}
+
+	/**
+	 * @param clock times the coalescing window.
+	 */
+	public HapticDispatcher(Haptics backend, long windowMs, Clock clock) {
+		this.backend = backend;
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+		this.clock = clock;
+	}
+
+	public void start() {
+		running = true;
+		Thread t = new Thread("HapticDispatcher") {
+			public void run() {
+				dispatchLoop();
+			}
+		};
+		t.setDaemon(true);
+		thread = t;
+		t.start();
+	}
+
+	/**
+	 * Stops the dispatcher thread. Pending events are discarded.
+	 */
+	public void stop() {
+		running = false;
+		Thread t = thread;
+		if (t != null) {
+			LockSupport.unpark(t);
+		}
+	}
+
+	/**
+	 * Queues a bounce. Never blocks.
+	 *
+	 * @param impactSpeed how fast the ball was going when it hit.
+	 */
+	public void post(float impactSpeed) {
+		long t = tail;
+		if (t - head >= CAPACITY) {
+			dropped++;
+			return;
+		}
+		impacts[(int) t & MASK] = impactSpeed;
+		tail = t + 1;
+		posted++;
+
+		Thread dispatcher = thread;
+		if (dispatcher != null) {
+			LockSupport.unpark(dispatcher);
+		}
+	}
+
+	public long getPostedCount() {
+		return posted;
+	}
+
+	/**
+	 * @return events thrown away because the ring was full.
+	 */
+	public long getDroppedCount() {
+		return dropped;
+	}
+
+	/**
+	 * @return events folded into another vibration.
+	 */
+	public long getMergedCount() {
+		return merged;
+	}
+
+	public long getVibrationCount() {
+		return vibrations;
+	}
+
+	private void dispatchLoop() {
+		boolean pending = false;
+		float pendingImpact = 0;
+		long lastVibrate = clock.nanoTime() - windowNanos;
+
+		while (running) {
+			// drain everything posted so far
+			long h = head;
+			long t = tail;
+			for (; h < t; h++) {
+				float impact = impacts[(int) h & MASK];
+				if (pending) {
+					merged++;
+					pendingImpact = Math.max(pendingImpact, impact);
+				} else {
+					pending = true;
+					pendingImpact = impact;
+				}
+			}
+			head = h;
+
+			if (!pending) {
+				// post() unparks us
+				LockSupport.park();
+				continue;
+			}
+
+			long wait = lastVibrate + windowNanos - clock.nanoTime();
+			if (wait > 0) {
+				// still inside the window, keep merging until it ends
+				LockSupport.parkNanos(wait);
+				continue;
+			}
+
+			backend.vibrate(durationFor(pendingImpact));
+			vibrations++;
+			lastVibrate = clock.nanoTime();
+			pending = false;
+		}
+	}
+
+	private static long durationFor(float impactSpeed) {
+		long ms = MIN_VIBRATE_MS + (long) (impactSpeed * MS_PER_IMPACT_SPEED);
+		return Math.min(ms, MAX_VIBRATE_MS);
+	}
+}
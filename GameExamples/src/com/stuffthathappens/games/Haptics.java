@@ -0,0 +1,9 @@
+package com.stuffthathappens.games;
+
+/**
+ * Something that can buzz. On the phone this is the vibrator, see
+ * {@link VibratorHaptics}.
+ */
+public interface Haptics {
+	void vibrate(long milliseconds);
+}
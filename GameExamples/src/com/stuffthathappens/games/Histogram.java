@@ -0,0 +1,109 @@
+package com.stuffthathappens.games;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how often values of different sizes occur, such as how long a
+ * frame took, so percentiles can be read back later. Recording is one
+ * atomic increment and never allocates or blocks, so it is safe to call
+ * from the game loop and read from another thread.
+ * <p>
+ * Values are grouped into buckets that get wider as the values get
+ * bigger. Each power of two is split into 8 buckets, so a percentile is
+ * within about 12% of the true value, whether that is microseconds or
+ * seconds.
+ */
+public class Histogram {
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	// enough for any non-negative long
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+	private final AtomicIntegerArray counts = new AtomicIntegerArray(BUCKETS);
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param value negative values are counted as 0.
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(bucketOf(value));
+
+		long m = max.get();
+		while (value > m && !max.compareAndSet(m, value)) {
+			m = max.get();
+		}
+	}
+
+	/**
+	 * @return how many values have been recorded since the last reset.
+	 */
+	public long getCount() {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += counts.get(i);
+		}
+		return total;
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @param fraction between 0 and 1, so 0.99 is the 99th percentile.
+	 * @return the largest value in the bucket holding that percentile, or
+	 *         0 if nothing has been recorded.
+	 */
+	public long getPercentile(double fraction) {
+		long total = getCount();
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(fraction * total);
+		if (rank < 1) {
+			rank = 1;
+		}
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValueIn(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Forgets everything recorded so far. Values recorded by other threads
+	 * while this runs may or may not survive.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		max.set(0);
+	}
+
+	static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BITS;
+		return (shift + 1) * SUB_BUCKETS
+				+ (int) ((value >> shift) & (SUB_BUCKETS - 1));
+	}
+
+	static long highestValueIn(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,80 @@
+package com.stuffthathappens.games;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import android.content.Context;
+import android.media.MediaPlayer;
+import android.media.MediaPlayer.OnCompletionListener;
+
+/**
+ * Plays a sound resource through a small pool of MediaPlayers, so a few
+ * copies of the sound can overlap. If every player is busy the sound is
+ * skipped. This is the fallback when the sound can't be decoded for
+ * {@link MixerSoundEffect}.
+ */
+public class MediaPlayerSoundEffect implements SoundEffect, OnCompletionListener {
+	private static final int PLAYERS = 4;
+	
+	private final List<MediaPlayer> players = new LinkedList<MediaPlayer>();
+	private boolean running = false;
+	
+	private final Object LOCK = new Object();
+	
+	public MediaPlayerSoundEffect(Context context, int resId) {
+		synchronized (LOCK) {
+			for (int i=0; i<PLAYERS; i++) {
+				MediaPlayer mp = MediaPlayer.create(context, resId);
+				mp.setVolume(1f, 1f);
+				players.add(mp);
+				try {
+					mp.setLooping(false);
+					mp.setOnCompletionListener(this);
+					
+					// TODO: there is a serious bug here. After a few seconds of
+					// inactivity, we see this in LogCat:
+					//   AudioHardwareMSM72xx Going to standby 
+					// then the sounds don't play until you click several more
+					// times, then it starts working again
+					
+				} catch (Exception e) {
+					e.printStackTrace();
+					players.remove(mp);
+				}
+			}
+			running = true;
+		}
+	}
+	
+	public void play() {
+		MediaPlayer mp = null;
+		synchronized (LOCK) {
+			if (!players.isEmpty()) {    				
+				mp = players.remove(0);
+			}
+		}
+		if (mp != null) {
+			mp.start(); 
+		}
+	}
+	
+	public void release() {
+		synchronized (LOCK) {
+			running = false;
+			for (MediaPlayer p : players) {
+				p.release();
+			}
+			players.clear();
+		}
+	}
+
+	public void onCompletion(MediaPlayer mp) {
+		synchronized (LOCK) {
+			if (running) {
+	    		mp.seekTo(0);
+	    		// return the player to the pool of available instances
+				players.add(mp);
+			}
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package com.stuffthathappens.games;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+/**
+ * Draws a {@link FrameMetrics} summary in the top left corner of a game
+ * screen: p50, p99 and max for each phase in microseconds, then the frame
+ * and entity counts. Reuses one char buffer, so drawing it every frame
+ * doesn't create garbage.
+ */
+public class MetricsOverlay {
+	private static final int TEXT_SIZE = 14;
+	private static final int LINE_HEIGHT = TEXT_SIZE + 4;
+
+	// the area the overlay draws over
+	public static final int WIDTH = 220;
+	public static final int HEIGHT = (FrameMetrics.PHASES + 1) * LINE_HEIGHT + 6;
+
+	private final char[] line = new char[64];
+	private final Paint textPaint;
+	private final Paint shadePaint;
+
+	public MetricsOverlay() {
+		textPaint = new Paint();
+		textPaint.setColor(Color.WHITE);
+		textPaint.setAntiAlias(true);
+		textPaint.setTextSize(TEXT_SIZE);
+
+		shadePaint = new Paint();
+		shadePaint.setColor(Color.BLACK);
+		shadePaint.setAlpha(160);
+	}
+
+	public void draw(Canvas c, FrameMetrics metrics) {
+		c.drawRect(0, 0, WIDTH, HEIGHT, shadePaint);
+
+		float y = LINE_HEIGHT;
+		for (int i = 0; i < FrameMetrics.PHASES; i++) {
+			int n = metrics.formatPhase(i, line);
+			c.drawText(line, 0, n, 4, y, textPaint);
+			y += LINE_HEIGHT;
+		}
+		int n = metrics.formatCounts(line);
+		c.drawText(line, 0, n, 4, y, textPaint);
+	}
+}
@@ -0,0 +1,97 @@
+package com.stuffthathappens.games;
+
+import java.io.IOException;
+
+/**
+ * Plays a pre-decoded sound through a {@link PcmMixer} on a thread of its
+ * own. Overlapping sounds are mixed rather than dropped, and play() only
+ * bumps a counter, so it is cheap enough to call from the game loop.
+ * <p>
+ * The stream keeps running, with silence between sounds, for as long as
+ * this object is alive. So the audio hardware never drops into standby
+ * and swallows the first pop after a pause. The game creates one in
+ * onResume() and releases it in onPause(), so that is only while the
+ * game is on screen. Mixing a silent buffer takes about 140ns on a
+ * desktop JVM (see PcmMixerBenchmark), about 25us of CPU a second at
+ * 172 buffers a second, and the thread spends the rest blocked in the
+ * sink.
+ * <p>
+ * Nothing here needs Android, so it runs off the device with a
+ * {@link WavFileSink}. Errors on the mixing thread are kept for
+ * {@link #getFailure()} rather than logged.
+ */
+public class MixerSoundEffect implements SoundEffect {
+	// samples per write, about 6ms at 44.1kHz. Smaller buffers mean a
+	// sound starts sooner after play() is called.
+	private static final int BUFFER_SAMPLES = 256;
+	private static final int VOICES = 8;
+	
+	private final PcmMixer mixer;
+	private final AudioSink sink;
+	private final Thread thread;
+	private volatile boolean running = true;
+	private volatile IOException failure;
+	
+	/**
+	 * @param sample mono 16 bit PCM at the sink's sample rate, such as
+	 *        {@link PcmSample#data}.
+	 */
+	public MixerSoundEffect(short[] sample, AudioSink sink) {
+		this.mixer = new PcmMixer(sample, VOICES);
+		this.sink = sink;
+		thread = new Thread("MixerSoundEffect") {
+			public void run() {
+				mixLoop();
+			}
+		};
+		thread.start();
+	}
+	
+	public void play() {
+		mixer.trigger();
+	}
+	
+	public PcmMixer getMixer() {
+		return mixer;
+	}
+	
+	/**
+	 * Stops the mixing thread and closes the sink.
+	 */
+	public void release() {
+		running = false;
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			sink.close();
+		} catch (IOException e) {
+			if (failure == null) {
+				failure = e;
+			}
+		}
+	}
+	
+	/**
+	 * @return why the stream stopped or the sink didn't close, or null if
+	 *         nothing went wrong.
+	 */
+	public IOException getFailure() {
+		return failure;
+	}
+	
+	private void mixLoop() {
+		short[] buffer = new short[BUFFER_SAMPLES];
+		try {
+			while (running) {
+				mixer.mix(buffer, buffer.length);
+				// blocks until the hardware wants more
+				sink.write(buffer, buffer.length);
+			}
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package com.stuffthathappens.games;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mixes overlapping copies of one short sound into a mono 16 bit stream.
+ * There is a fixed number of voices. When all of them are busy, a new
+ * sound takes over the voice that has been playing longest.
+ * <p>
+ * {@link #trigger()} can be called from any thread and never blocks. It
+ * just counts requests, which the mixing thread picks up at the start of
+ * the next buffer. Only one thread may call {@link #mix(short[], int)}.
+ */
+public class PcmMixer {
+	private static final int IDLE = -1;
+
+	private final short[] sample;
+	
+	// how far into the sample each voice is, or IDLE
+	private final int[] position;
+	
+	// mixing happens in ints so overlapping voices can be clipped once
+	private int[] accumulator = new int[0];
+	
+	private final AtomicInteger pending = new AtomicInteger();
+	
+	// only written by the mixing thread
+	private volatile long started;
+	private volatile long stolen;
+
+	public PcmMixer(short[] sample, int voices) {
+		this.sample = sample;
+		this.position = new int[voices];
+		for (int i = 0; i < voices; i++) {
+			position[i] = IDLE;
+		}
+	}
+	
+	/**
+	 * Starts another copy of the sound with the next buffer.
+	 */
+	public void trigger() {
+		pending.incrementAndGet();
+	}
+	
+	/**
+	 * @return how many sounds have started playing.
+	 */
+	public long getStartedCount() {
+		return started;
+	}
+	
+	/**
+	 * @return how many sounds were cut short to free up a voice, including
+	 *         ones that never got to play because even more were triggered
+	 *         at once.
+	 */
+	public long getStolenCount() {
+		return stolen;
+	}
+
+	/**
+	 * Fills <code>out</code> with the next <code>count</code> samples, which
+	 * is silence if nothing is playing.
+	 *
+	 * @return true if any voice is still playing after this buffer.
+	 */
+	public boolean mix(short[] out, int count) {
+		startPending();
+		
+		if (accumulator.length < count) {
+			accumulator = new int[count];
+		}
+		final int[] acc = accumulator;
+		final short[] src = sample;
+		for (int i = 0; i < count; i++) {
+			acc[i] = 0;
+		}
+		
+		boolean playing = false;
+		for (int v = 0; v < position.length; v++) {
+			int pos = position[v];
+			if (pos == IDLE) {
+				continue;
+			}
+			int n = Math.min(count, src.length - pos);
+			for (int i = 0; i < n; i++) {
+				acc[i] += src[pos + i];
+			}
+			pos += n;
+			if (pos >= src.length) {
+				position[v] = IDLE;
+			} else {
+				position[v] = pos;
+				playing = true;
+			}
+		}
+		
+		for (int i = 0; i < count; i++) {
+			int s = acc[i];
+			if (s > Short.MAX_VALUE) {
+				s = Short.MAX_VALUE;
+			} else if (s < Short.MIN_VALUE) {
+				s = Short.MIN_VALUE;
+			}
+			out[i] = (short) s;
+		}
+		return playing;
+	}
+	
+	private void startPending() {
+		int n = pending.getAndSet(0);
+		if (n > position.length) {
+			// starting more voices than there are would only cut off the
+			// extra ones before they are heard
+			stolen += n - position.length;
+			n = position.length;
+		}
+		for (; n > 0; n--) {
+			int voice = 0;
+			for (int v = 0; v < position.length; v++) {
+				if (position[v] == IDLE) {
+					voice = v;
+					break;
+				}
+				if (position[v] > position[voice]) {
+					voice = v;
+				}
+			}
+			if (position[voice] != IDLE) {
+				stolen++;
+			}
+			position[voice] = 0;
+			started++;
+		}
+	}
+}
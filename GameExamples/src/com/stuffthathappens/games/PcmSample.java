@@ -0,0 +1,155 @@
+package com.stuffthathappens.games;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+/**
+ * A sound decoded to mono 16 bit PCM, ready for {@link PcmMixer}.
+ * Decoding is slow, so each resource is decoded once per process and
+ * kept in memory.
+ */
+public final class PcmSample {
+	private static final long TIMEOUT_US = 10000;
+	
+	private static final Map<Integer, PcmSample> cache = 
+		new HashMap<Integer, PcmSample>();
+	
+	public final short[] data;
+	public final int sampleRate;
+	
+	public PcmSample(short[] data, int sampleRate) {
+		this.data = data;
+		this.sampleRate = sampleRate;
+	}
+	
+	/**
+	 * Returns the decoded sound, decoding it the first time.
+	 */
+	public static synchronized PcmSample load(Context context, int resId) 
+			throws IOException {
+		PcmSample sample = cache.get(resId);
+		if (sample == null) {
+			sample = decode(context, resId);
+			cache.put(resId, sample);
+		}
+		return sample;
+	}
+	
+	private static PcmSample decode(Context context, int resId) 
+			throws IOException {
+		AssetFileDescriptor fd = context.getResources().openRawResourceFd(resId);
+		MediaExtractor extractor = new MediaExtractor();
+		MediaCodec codec = null;
+		try {
+			extractor.setDataSource(fd.getFileDescriptor(), 
+					fd.getStartOffset(), fd.getLength());
+			if (extractor.getTrackCount() < 1) {
+				throw new IOException("no audio track in resource " + resId);
+			}
+			MediaFormat format = extractor.getTrackFormat(0);
+			extractor.selectTrack(0);
+			int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+			int channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+			
+			codec = MediaCodec.createDecoderByType(
+					format.getString(MediaFormat.KEY_MIME));
+			codec.configure(format, null, null, 0);
+			codec.start();
+			
+			ShortArray out = new ShortArray();
+			ByteBuffer[] inputs = codec.getInputBuffers();
+			ByteBuffer[] outputs = codec.getOutputBuffers();
+			MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+			boolean inputDone = false;
+			boolean outputDone = false;
+			
+			while (!outputDone) {
+				if (!inputDone) {
+					int in = codec.dequeueInputBuffer(TIMEOUT_US);
+					if (in >= 0) {
+						int size = extractor.readSampleData(inputs[in], 0);
+						if (size < 0) {
+							codec.queueInputBuffer(in, 0, 0, 0, 
+									MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+							inputDone = true;
+						} else {
+							codec.queueInputBuffer(in, 0, size, 
+									extractor.getSampleTime(), 0);
+							extractor.advance();
+						}
+					}
+				}
+				
+				int outIndex = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+				if (outIndex >= 0) {
+					ByteBuffer buf = outputs[outIndex];
+					buf.position(info.offset);
+					buf.limit(info.offset + info.size);
+					out.appendMono(buf.order(ByteOrder.nativeOrder())
+							.asShortBuffer(), channels);
+					codec.releaseOutputBuffer(outIndex, false);
+					if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+						outputDone = true;
+					}
+				} else if (outIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+					outputs = codec.getOutputBuffers();
+				} else if (outIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+					MediaFormat f = codec.getOutputFormat();
+					sampleRate = f.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+					channels = f.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+				}
+			}
+			return new PcmSample(out.toArray(), sampleRate);
+		} finally {
+			if (codec != null) {
+				codec.stop();
+				codec.release();
+			}
+			extractor.release();
+			fd.close();
+		}
+	}
+	
+	/**
+	 * Growable short array for collecting decoder output.
+	 */
+	private static final class ShortArray {
+		short[] data = new short[8192];
+		int size;
+		
+		/**
+		 * Appends interleaved samples, averaging the channels down to one.
+		 */
+		void appendMono(ShortBuffer src, int channels) {
+			int frames = src.remaining() / channels;
+			if (size + frames > data.length) {
+				short[] bigger = new short[Math.max(size + frames, data.length * 2)];
+				System.arraycopy(data, 0, bigger, 0, size);
+				data = bigger;
+			}
+			for (int i = 0; i < frames; i++) {
+				int sum = 0;
+				for (int c = 0; c < channels; c++) {
+					sum += src.get();
+				}
+				data[size++] = (short) (sum / channels);
+			}
+		}
+		
+		short[] toArray() {
+			short[] result = new short[size];
+			System.arraycopy(data, 0, result, 0, size);
+			return result;
+		}
+	}
+}
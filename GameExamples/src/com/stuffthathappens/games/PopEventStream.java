@@ -0,0 +1,95 @@
+package com.stuffthathappens.games;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the pops from each update into one batch and hands it to every
+ * listener. Listeners can be added and removed from any thread. Sending a
+ * batch allocates nothing.
+ */
+public class PopEventStream {
+	private static final PopListener[] NONE = new PopListener[0];
+	private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	// copied on every change, so sending never needs a lock
+	private volatile PopListener[] listeners = NONE;
+
+	// only touched by the thread updating the model
+	private final PopEvents batch = new PopEvents();
+	private long windowStart = Long.MIN_VALUE;
+	private long windowEvents;
+
+	private volatile long events;
+	private volatile float eventsPerSecond;
+
+	public synchronized void addListener(PopListener listener) {
+		PopListener[] old = listeners;
+		PopListener[] updated = new PopListener[old.length + 1];
+		System.arraycopy(old, 0, updated, 0, old.length);
+		updated[old.length] = listener;
+		listeners = updated;
+	}
+
+	public synchronized void removeListener(PopListener listener) {
+		PopListener[] old = listeners;
+		for (int i = 0; i < old.length; i++) {
+			if (old[i] == listener) {
+				PopListener[] updated = new PopListener[old.length - 1];
+				System.arraycopy(old, 0, updated, 0, i);
+				System.arraycopy(old, i + 1, updated, i, old.length - i - 1);
+				listeners = updated;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return the empty batch for this update. Model thread only.
+	 */
+	PopEvents startBatch() {
+		batch.clear();
+		return batch;
+	}
+
+	/**
+	 * Sends the batch to every listener, if anything popped, and updates the
+	 * rate. Call once per update, outside any model lock. Model thread only.
+	 */
+	void publish(long now) {
+		int n = batch.count;
+		events += n;
+
+		if (windowStart == Long.MIN_VALUE) {
+			windowStart = now;
+		}
+		windowEvents += n;
+		long elapsed = now - windowStart;
+		if (elapsed >= RATE_WINDOW_NANOS) {
+			eventsPerSecond = windowEvents * (float) RATE_WINDOW_NANOS / elapsed;
+			windowStart = now;
+			windowEvents = 0;
+		}
+
+		if (n > 0) {
+			batch.updateNanos = now;
+			PopListener[] l = listeners;
+			for (int i = 0; i < l.length; i++) {
+				l[i].onPops(batch);
+			}
+		}
+	}
+
+	/**
+	 * @return every pop sent so far.
+	 */
+	public long getEventCount() {
+		return events;
+	}
+
+	/**
+	 * @return pops per second over the last second or so.
+	 */
+	public float getEventsPerSecond() {
+		return eventsPerSecond;
+	}
+}
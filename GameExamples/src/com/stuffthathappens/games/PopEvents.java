@@ -0,0 +1,48 @@
+package com.stuffthathappens.games;
+
+/**
+ * The bubbles that popped during one update, as parallel arrays. The same
+ * instance is reused for every update, so listeners must copy anything
+ * they want to keep.
+ */
+public class PopEvents {
+	public int count;
+	public float[] x, y, radius;
+	// when each bubble popped, on the model's clock. Not in order, taps
+	// come before bubbles that ran out of time.
+	public long[] timeNanos;
+	// when the update that sent this batch ran, never before the last one
+	public long updateNanos;
+
+	public PopEvents() {
+		this(16);
+	}
+
+	public PopEvents(int capacity) {
+		x = new float[capacity];
+		y = new float[capacity];
+		radius = new float[capacity];
+		timeNanos = new long[capacity];
+	}
+
+	public void clear() {
+		count = 0;
+	}
+
+	public void add(float px, float py, float r, long t) {
+		if (count == x.length) {
+			int capacity = count * 2;
+			x = CircleBuffer.grow(x, count, capacity);
+			y = CircleBuffer.grow(y, count, capacity);
+			radius = CircleBuffer.grow(radius, count, capacity);
+			long[] newTimes = new long[capacity];
+			System.arraycopy(timeNanos, 0, newTimes, 0, count);
+			timeNanos = newTimes;
+		}
+		x[count] = px;
+		y[count] = py;
+		radius[count] = r;
+		timeNanos[count] = t;
+		count++;
+	}
+}
@@ -0,0 +1,13 @@
+package com.stuffthathappens.games;
+
+/**
+ * Gets every batch of popped bubbles, on the thread that updates the
+ * model. Keep it quick, the game loop waits for it.
+ */
+public interface PopListener {
+	
+	/**
+	 * @param batch only valid during this call.
+	 */
+	void onPops(PopEvents batch);
+}
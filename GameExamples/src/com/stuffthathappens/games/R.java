@@ -21,6 +21,9 @@ public final class R {
         public static final int bubbles_btn=0x7f06000a;
         public static final int bubbles_surface=0x7f060006;
         public static final int calibrate_button=0x7f060004;
+        public static final int delay_button=0x7f060010;
+        public static final int noise_label=0x7f06000f;
+        public static final int rate_label=0x7f06000e;
         public static final int sensor_list=0x7f06000d;
         public static final int sensor_list_btn=0x7f060007;
         public static final int sensor_name=0x7f06000b;
@@ -43,6 +46,7 @@ public final class R {
         public static final int pop3=0x7f040002;
     }
     public static final class string {
+        public static final int add_balls=0x7f05000c;
         public static final int accelerometer=0x7f050001;
         public static final int accuracy_high=0x7f050006;
         public static final int accuracy_low=0x7f050004;
@@ -53,7 +57,14 @@ public final class R {
         public static final int bouncing_ball=0x7f050007;
         public static final int bubbles=0x7f050008;
         public static final int calibrate=0x7f05000b;
+        public static final int delay_fastest=0x7f050012;
+        public static final int delay_game=0x7f05000f;
+        public static final int delay_normal=0x7f050011;
+        public static final int delay_ui=0x7f050010;
+        public static final int hold_still=0x7f050013;
         public static final int no_accelerometer=0x7f050009;
+        public static final int record_sensors=0x7f05000e;
         public static final int sensor_list=0x7f05000a;
+        public static final int show_timings=0x7f05000d;
     }
 }
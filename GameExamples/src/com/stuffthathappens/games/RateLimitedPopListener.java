@@ -0,0 +1,72 @@
+package com.stuffthathappens.games;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Passes pops on to another listener, but no more than a set number per
+ * second, with room for a short burst. Anything over the limit is
+ * dropped and counted. Refills from each batch's update time, not the
+ * wall clock, so it behaves the same under a fake {@link Clock}. The pop
+ * times themselves aren't in order, so they can't be used for this.
+ */
+public class RateLimitedPopListener implements PopListener {
+	private final PopListener delegate;
+	private final float eventsPerNano;
+	private final float burst;
+
+	// the events that made it through, reused for every batch
+	private final PopEvents passed = new PopEvents();
+	private float tokens;
+	private long lastRefill = Long.MIN_VALUE;
+
+	private volatile long delivered;
+	private volatile long dropped;
+
+	/**
+	 * @param eventsPerSecond the sustained rate let through.
+	 * @param burst how many events may go through at once after a quiet
+	 *        spell.
+	 */
+	public RateLimitedPopListener(PopListener delegate, float eventsPerSecond,
+			int burst) {
+		this.delegate = delegate;
+		this.eventsPerNano = eventsPerSecond / TimeUnit.SECONDS.toNanos(1);
+		this.burst = burst;
+		this.tokens = burst;
+	}
+
+	public void onPops(PopEvents batch) {
+		int n = batch.count;
+		if (n == 0) {
+			return;
+		}
+		long now = batch.updateNanos;
+		if (lastRefill != Long.MIN_VALUE && now > lastRefill) {
+			tokens = Math.min(burst, tokens + (now - lastRefill) * eventsPerNano);
+		}
+		lastRefill = Math.max(lastRefill, now);
+
+		passed.clear();
+		passed.updateNanos = batch.updateNanos;
+		for (int i = 0; i < n && tokens >= 1; i++) {
+			passed.add(batch.x[i], batch.y[i], batch.radius[i], batch.timeNanos[i]);
+			tokens -= 1;
+		}
+		delivered += passed.count;
+		dropped += n - passed.count;
+		if (passed.count > 0) {
+			delegate.onPops(passed);
+		}
+	}
+
+	public long getDeliveredCount() {
+		return delivered;
+	}
+
+	/**
+	 * @return events thrown away because they were over the limit.
+	 */
+	public long getDroppedCount() {
+		return dropped;
+	}
+}
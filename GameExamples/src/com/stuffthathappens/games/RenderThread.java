@@ -0,0 +1,107 @@
+package com.stuffthathappens.games;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Draws frames on a thread of its own, so a slow <code>lockCanvas()</code>
+ * doesn't hold up the simulation and a slow update doesn't hold up
+ * drawing. The update thread calls {@link #requestFrame()} after each
+ * update that published something. This thread then calls
+ * {@link GameLoop.Game#render()}, which draws the newest snapshot the
+ * model published.
+ * <p>
+ * Frames requested while the previous one is still being drawn aren't
+ * queued. They are counted as dropped, and only the newest gets drawn.
+ * Drawing is capped at the given frame rate.
+ */
+public class RenderThread extends Thread {
+	private final GameLoop.Game game;
+	private final FrameMetrics metrics;
+	private final Clock clock;
+	private final long frameNanos;
+	private final WakeSignal frameRequested = new WakeSignal();
+	private volatile boolean running = true;
+
+	// only written by the update thread
+	private volatile long requests;
+
+	// only written by the render thread
+	private volatile long frames;
+	private volatile long dropped;
+
+	/**
+	 * @param framesPerSecond at most this many frames are drawn per second.
+	 */
+	public RenderThread(GameLoop.Game game, int framesPerSecond,
+			FrameMetrics metrics, Clock clock) {
+		super("RenderThread");
+		if (framesPerSecond < 1) {
+			throw new IllegalArgumentException("framesPerSecond must be at least 1");
+		}
+		this.game = game;
+		this.metrics = metrics;
+		this.clock = clock;
+		this.frameNanos = TimeUnit.SECONDS.toNanos(1) / framesPerSecond;
+	}
+
+	/**
+	 * Asks for the newest state to be drawn. Never blocks. Only one thread
+	 * may call this.
+	 */
+	public void requestFrame() {
+		requests++;
+		frameRequested.wake();
+	}
+
+	public void run() {
+		long drawn = 0;
+		long nextFrame = clock.nanoTime();
+
+		while (running) {
+			try {
+				frameRequested.park();
+
+				long wait = nextFrame - clock.nanoTime();
+				if (wait > 0) {
+					// too soon after the last frame. Requests that arrive
+					// meanwhile are folded into this one.
+					TimeUnit.NANOSECONDS.sleep(wait);
+				}
+
+				long r = requests;
+				if (r == drawn) {
+					// already drawn by the last frame
+					continue;
+				}
+				dropped += r - drawn - 1;
+				drawn = r;
+
+				game.render();
+				frames++;
+				metrics.countFrame();
+
+				long now = clock.nanoTime();
+				nextFrame = Math.max(nextFrame + frameNanos, now);
+			} catch (InterruptedException ie) {
+				running = false;
+			}
+		}
+	}
+
+	public void safeStop() {
+		running = false;
+		interrupt();
+	}
+
+	public long getFrameCount() {
+		return frames;
+	}
+
+	/**
+	 * @return requested frames that were never drawn because a newer one
+	 *         came along first.
+	 */
+	public long getDroppedFrameCount() {
+		return dropped;
+	}
+}
@@ -0,0 +1,23 @@
+package com.stuffthathappens.games;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A model that can write its state as one block of bytes. Models start
+ * with a magic number and a version so stale or foreign data is rejected
+ * instead of misread. See {@link StateStore} for where the bytes go.
+ */
+public interface Saveable {
+	/**
+	 * @return the whole state, ready to read, in native byte order.
+	 */
+	ByteBuffer saveState();
+
+	/**
+	 * Replaces the model's state with what's in the buffer.
+	 *
+	 * @throws IllegalArgumentException if the buffer doesn't hold a state
+	 *         this version of the model understands.
+	 */
+	void restoreState(ByteBuffer in);
+}
@@ -0,0 +1,160 @@
+package com.stuffthathappens.games;
+
+/**
+ * Keeps running statistics for one sensor: how fast samples actually
+ * arrive, how evenly they are spaced, and how noisy the values are. Uses
+ * the same small amount of memory however long it runs, and
+ * {@link #sample(long, float, float, float)} never allocates.
+ * <p>
+ * Samples are looked at in windows of about a second. The mean and
+ * variance of each window are kept with Welford's method. When a window's
+ * values barely moved, the device was lying still, and that window's mean
+ * is a good calibration point and its spread is the sensor's noise.
+ * <p>
+ * Only use it from the thread that delivers the samples.
+ */
+public class SensorStats {
+	private static final long WINDOW_NANOS = 1000000000L;
+	// fewer samples than this don't say much about the noise
+	private static final int MIN_STILL_SAMPLES = 5;
+
+	private final float stillStdDev;
+
+	private final Histogram intervals = new Histogram();
+	private long count;
+	private long lastNanos = -1;
+
+	private float rate;
+
+	// the current window
+	private long windowStart = -1;
+	private int n;
+	private final double[] mean = new double[3];
+	private final double[] m2 = new double[3];
+
+	// the last window the device was still for
+	private long stillStart = -1;
+	private final float[] stillMean = new float[3];
+	private final float[] noise = new float[3];
+
+	/**
+	 * @param stillStdDev a window counts as still if no axis has a standard
+	 *        deviation above this.
+	 */
+	public SensorStats(float stillStdDev) {
+		this.stillStdDev = stillStdDev;
+	}
+
+	/**
+	 * Adds one sample, for sensors with fewer axes pass 0 for the rest.
+	 */
+	public void sample(long nanos, float x, float y, float z) {
+		count++;
+		if (lastNanos >= 0) {
+			intervals.record(nanos - lastNanos);
+		}
+		lastNanos = nanos;
+
+		if (windowStart < 0) {
+			windowStart = nanos;
+		} else if (nanos - windowStart >= WINDOW_NANOS) {
+			endWindow(nanos);
+			windowStart = nanos;
+		}
+
+		n++;
+		add(0, x);
+		add(1, y);
+		add(2, z);
+	}
+
+	// Welford's update, which doesn't lose precision the way summing
+	// squares does
+	private void add(int axis, float value) {
+		double delta = value - mean[axis];
+		mean[axis] += delta / n;
+		m2[axis] += delta * (value - mean[axis]);
+	}
+
+	private void endWindow(long nanos) {
+		rate = (float) (n * 1e9 / (nanos - windowStart));
+
+		double limit = (double) stillStdDev * stillStdDev;
+		boolean still = n >= MIN_STILL_SAMPLES;
+		for (int axis = 0; axis < 3 && still; axis++) {
+			still = m2[axis] / (n - 1) <= limit;
+		}
+		if (still) {
+			for (int axis = 0; axis < 3; axis++) {
+				stillMean[axis] = (float) mean[axis];
+				noise[axis] = (float) Math.sqrt(m2[axis] / (n - 1));
+			}
+			stillStart = windowStart;
+		}
+
+		n = 0;
+		for (int axis = 0; axis < 3; axis++) {
+			mean[axis] = 0;
+			m2[axis] = 0;
+		}
+	}
+
+	/**
+	 * Starts over, such as after asking for a different sensor rate.
+	 */
+	public void reset() {
+		intervals.reset();
+		count = 0;
+		lastNanos = -1;
+		rate = 0;
+		windowStart = -1;
+		n = 0;
+		for (int axis = 0; axis < 3; axis++) {
+			mean[axis] = 0;
+			m2[axis] = 0;
+		}
+		// still windows stay valid, they don't depend on the rate
+	}
+
+	public long getSampleCount() {
+		return count;
+	}
+
+	/**
+	 * @return samples per second over the last full window, 0 until there
+	 *         has been one.
+	 */
+	public float getRate() {
+		return rate;
+	}
+
+	/**
+	 * @return the times between samples, in nanoseconds.
+	 */
+	public Histogram getIntervals() {
+		return intervals;
+	}
+
+	/**
+	 * @return when the last still window began, -1 if there hasn't been
+	 *         one. Changes whenever a new still mean is available.
+	 */
+	public long getStillStart() {
+		return stillStart;
+	}
+
+	/**
+	 * @return the average value of an axis over the last still window.
+	 */
+	public float getStillMean(int axis) {
+		return stillMean[axis];
+	}
+
+	/**
+	 * @return the standard deviation of an axis over the last still
+	 *         window, which is the sensor's noise.
+	 */
+	public float getNoise(int axis) {
+		return noise[axis];
+	}
+}
@@ -0,0 +1,148 @@
+package com.stuffthathappens.games;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Plays back a trace written by {@link SensorTraceRecorder} into a
+ * {@link BouncingBallModel}, to reproduce a session from the field off the
+ * device. The player is also the model's clock. Time only moves when
+ * {@link #advance(long, BouncingBallModel)} is called, so a replay runs as
+ * fast as the physics can go and gives the same result every time.
+ *
+ * <pre>
+ * SensorTracePlayer player = new SensorTracePlayer(file);
+ * BouncingBallModel model = new BouncingBallModel(20, player);
+ * model.setSize(320, 480);
+ * player.replay(model, 16666667);
+ * </pre>
+ *
+ * Accelerometer samples go through {@link BouncingBallModel#offerAccel},
+ * as they do live, and each is offered at the time it was recorded.
+ * Samples from other sensors are skipped. Traces hold raw values, so set
+ * the same accelerometer offset on the model as the recording session
+ * used.
+ * <p>
+ * {@link #replay(BouncingBallModel, long)} follows the same rules as
+ * {@link GameLoop}: while the model is settled it isn't updated until its
+ * wake signal fires, so a replay ends where the live game did.
+ */
+public class SensorTracePlayer implements Clock {
+	// SensorManager.SENSOR_ACCELEROMETER, so this runs off the device too
+	private static final int SENSOR_ACCELEROMETER = 2;
+
+	private final ByteBuffer trace;
+	private final int recordCount;
+	private final long startNanos, endNanos;
+
+	private long now;
+	private int next;
+
+	public SensorTracePlayer(File f) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			// the mapping stays valid after the file is closed
+			trace = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+		} finally {
+			raf.close();
+		}
+
+		if (trace.remaining() < SensorTraceRecorder.HEADER_BYTES
+				|| trace.getInt(0) != SensorTraceRecorder.MAGIC) {
+			throw new IllegalArgumentException("not a sensor trace: " + f);
+		}
+		int version = trace.getInt(4);
+		if (version != SensorTraceRecorder.VERSION) {
+			throw new IllegalArgumentException("unknown trace version "
+					+ version);
+		}
+		// a partly written last record is ignored
+		recordCount = (trace.remaining() - SensorTraceRecorder.HEADER_BYTES)
+				/ SensorTraceRecorder.RECORD_BYTES;
+		startNanos = recordCount > 0 ? timeOf(0) : 0;
+		endNanos = recordCount > 0 ? timeOf(recordCount - 1) : 0;
+		now = startNanos;
+	}
+
+	/**
+	 * @return the current time in the trace.
+	 */
+	public long nanoTime() {
+		return now;
+	}
+
+	public int getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * @return how long the recorded session was.
+	 */
+	public long getDurationNanos() {
+		return endNanos - startNanos;
+	}
+
+	/**
+	 * @return true once every record has been played.
+	 */
+	public boolean isFinished() {
+		return next >= recordCount;
+	}
+
+	/**
+	 * Moves time forward, feeding the model every sample recorded up to
+	 * the new time.
+	 *
+	 * @return false if the trace had already been played to the end.
+	 */
+	public boolean advance(long nanos, BouncingBallModel model) {
+		if (isFinished()) {
+			return false;
+		}
+		long until = now + nanos;
+		while (next < recordCount && timeOf(next) <= until) {
+			int base = offsetOf(next++);
+			if (trace.getInt(base + 8) == SENSOR_ACCELEROMETER) {
+				now = trace.getLong(base);
+				model.offerAccel(trace.getFloat(base + 12),
+						trace.getFloat(base + 16));
+			}
+		}
+		now = until;
+		return true;
+	}
+
+	/**
+	 * Plays the rest of the trace, updating the model as a game loop would
+	 * every <code>stepNanos</code> of trace time. Steps while the model is
+	 * settled and nothing woke it are skipped, as the loop would be parked.
+	 *
+	 * @return the number of updates.
+	 */
+	public int replay(BouncingBallModel model, long stepNanos) {
+		WakeSignal wakeSignal = model.getWakeSignal();
+		int updates = 0;
+		while (advance(stepNanos, model)) {
+			if (model.isSettled() && !wakeSignal.poll()) {
+				continue;
+			}
+			model.updatePhysics();
+			updates++;
+		}
+		return updates;
+	}
+
+	private long timeOf(int record) {
+		return trace.getLong(offsetOf(record));
+	}
+
+	private static int offsetOf(int record) {
+		return SensorTraceRecorder.HEADER_BYTES + record
+				* SensorTraceRecorder.RECORD_BYTES;
+	}
+}
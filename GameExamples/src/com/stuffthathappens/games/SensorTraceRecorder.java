@@ -0,0 +1,103 @@
+package com.stuffthathappens.games;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records sensor samples to a file, so a session from the field can be
+ * played back later with {@link SensorTracePlayer}. Each record is the
+ * time, the sensor and three values, in a fixed size binary format:
+ *
+ * <pre>
+ * header: int magic "STRC", int version
+ * record: long nanos, int sensor, float x, float y, float z
+ * </pre>
+ *
+ * Big endian, so a trace from a phone reads the same on a desktop.
+ * Records are collected in a buffer and written a few hundred at a time,
+ * so {@link #record(int, float[])} doesn't allocate and only rarely
+ * touches the disk. Only call it from one thread.
+ */
+public class SensorTraceRecorder {
+	static final int MAGIC = 0x53545243; // "STRC"
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 8;
+	static final int RECORD_BYTES = 24;
+
+	private static final int BUFFERED_RECORDS = 256;
+
+	private final Clock clock;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer
+			.allocate(BUFFERED_RECORDS * RECORD_BYTES);
+	private int count;
+
+	public SensorTraceRecorder(File f) throws IOException {
+		this(f, Clock.SYSTEM);
+	}
+
+	/**
+	 * @param clock where the record times come from. Should be the same
+	 *        clock the model uses.
+	 */
+	public SensorTraceRecorder(File f, Clock clock) throws IOException {
+		this.clock = clock;
+		this.file = new RandomAccessFile(f, "rw");
+		file.setLength(0);
+		channel = file.getChannel();
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+	}
+
+	/**
+	 * Records one sample, stamped with the current time. Pass the values
+	 * straight from <code>onSensorChanged</code>, only the first three are
+	 * kept.
+	 */
+	public void record(int sensor, float[] values) throws IOException {
+		record(clock.nanoTime(), sensor, values[0], values[1], values[2]);
+	}
+
+	public void record(long nanos, int sensor, float x, float y, float z)
+			throws IOException {
+		if (buffer.remaining() < RECORD_BYTES) {
+			flush();
+		}
+		buffer.putLong(nanos);
+		buffer.putInt(sensor);
+		buffer.putFloat(x);
+		buffer.putFloat(y);
+		buffer.putFloat(z);
+		count++;
+	}
+
+	/**
+	 * @return samples recorded so far.
+	 */
+	public int getRecordCount() {
+		return count;
+	}
+
+	/**
+	 * Writes out what's buffered and closes the file.
+	 */
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			file.close();
+		}
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
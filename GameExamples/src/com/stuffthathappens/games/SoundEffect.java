@@ -0,0 +1,14 @@
+package com.stuffthathappens.games;
+
+/**
+ * A short sound that can be triggered from the game loop. Implementations
+ * must not block for long, and may skip the sound if they are busy.
+ */
+public interface SoundEffect {
+	void play();
+	
+	/**
+	 * Frees whatever the sound holds on to. Don't call play() afterwards.
+	 */
+	void release();
+}
@@ -0,0 +1,158 @@
+package com.stuffthathappens.games;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid of square cells that maps each item (identified by a small
+ * int id, such as an index into the model's arrays) to the cell containing
+ * its position. Cells are hashed into a power-of-two bucket table, so the
+ * grid has no fixed bounds.
+ * <p>
+ * Each bucket is an intrusive doubly linked list held in int arrays, so
+ * moving an item to a new cell is O(1) and nothing is allocated once the
+ * arrays are big enough. Different cells can share a bucket; callers must
+ * still check real distances for whatever they find in one.
+ * <p>
+ * Not thread safe.
+ */
+public class SpatialHash {
+	private static final int NONE = -1;
+
+	private float cellSize;
+	private float inverseCellSize;
+
+	private int[] head;
+	private int mask;
+
+	// per item links; bucketOf is NONE when the item isn't in the grid
+	private int[] next, prev, bucketOf;
+
+	public SpatialHash(float cellSize, int capacity) {
+		next = new int[capacity];
+		prev = new int[capacity];
+		bucketOf = new int[capacity];
+		allocateBuckets(capacity);
+		setCellSize(cellSize);
+	}
+
+	/**
+	 * Changes the cell size. This empties the grid, so callers must add
+	 * their items again.
+	 */
+	public void setCellSize(float cellSize) {
+		this.cellSize = cellSize;
+		this.inverseCellSize = 1f / cellSize;
+		clear();
+	}
+
+	public float getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * Makes room for ids up to <code>capacity - 1</code>. If the bucket
+	 * table has to grow, the grid is emptied and callers must add their
+	 * items again.
+	 *
+	 * @return true if the grid was emptied.
+	 */
+	public boolean ensureCapacity(int capacity) {
+		if (capacity <= next.length) {
+			return false;
+		}
+		int newCapacity = Math.max(capacity, next.length * 2);
+		next = new int[newCapacity];
+		prev = new int[newCapacity];
+		bucketOf = new int[newCapacity];
+		allocateBuckets(newCapacity);
+		clear();
+		return true;
+	}
+
+	/**
+	 * Removes every item.
+	 */
+	public void clear() {
+		Arrays.fill(head, NONE);
+		Arrays.fill(bucketOf, NONE);
+	}
+
+	/**
+	 * Adds the item, or moves it if it's already in the grid. Items that
+	 * stay inside the same cell aren't touched.
+	 */
+	public void update(int id, float x, float y) {
+		int bucket = bucket(cell(x), cell(y));
+		int old = bucketOf[id];
+		if (old == bucket) {
+			return;
+		}
+		if (old != NONE) {
+			unlink(id, old);
+		}
+		int first = head[bucket];
+		next[id] = first;
+		prev[id] = NONE;
+		if (first != NONE) {
+			prev[first] = id;
+		}
+		head[bucket] = id;
+		bucketOf[id] = bucket;
+	}
+
+	public void remove(int id) {
+		int old = bucketOf[id];
+		if (old != NONE) {
+			unlink(id, old);
+			bucketOf[id] = NONE;
+		}
+	}
+
+	/**
+	 * @return the cell coordinate (along either axis) containing the given
+	 *         position.
+	 */
+	public int cell(float coordinate) {
+		return (int) Math.floor(coordinate * inverseCellSize);
+	}
+
+	public int bucket(int cellX, int cellY) {
+		// the usual large primes for spatial hashing
+		return ((cellX * 73856093) ^ (cellY * 19349663)) & mask;
+	}
+
+	/**
+	 * @return the first item in the bucket, or a negative number if empty.
+	 */
+	public int first(int bucket) {
+		return head[bucket];
+	}
+
+	/**
+	 * @return the item after <code>id</code> in its bucket, or a negative
+	 *         number at the end.
+	 */
+	public int next(int id) {
+		return next[id];
+	}
+
+	private void unlink(int id, int bucket) {
+		int p = prev[id];
+		int n = next[id];
+		if (p != NONE) {
+			next[p] = n;
+		} else {
+			head[bucket] = n;
+		}
+		if (n != NONE) {
+			prev[n] = p;
+		}
+	}
+
+	private void allocateBuckets(int capacity) {
+		// two to four buckets per item keeps the chains short
+		int size = Integer.highestOneBit(Math.max(capacity, 8)) * 4;
+		head = new int[size];
+		mask = size - 1;
+	}
+}
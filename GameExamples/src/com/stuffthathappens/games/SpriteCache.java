@@ -0,0 +1,258 @@
+package com.stuffthathappens.games;
+
+/**
+ * Keeps pre-drawn circles around so they can be copied to the screen
+ * instead of being anti-aliased from scratch every frame. Sprites are
+ * keyed by radius and color. Radii snap to a bucket size, so bubbles that
+ * grow a fraction of a pixel per frame share sprites.
+ * <p>
+ * When there are too many sprites, or they use more memory than the
+ * budget, the least recently used ones are released. The sprite just
+ * created is never released, even if it alone is over budget.
+ * <p>
+ * The sprites themselves come from a {@link SpriteFactory}, so none of
+ * this depends on Android. Lookups don't allocate. Not thread safe, only
+ * use it from the thread that draws.
+ *
+ * @param <S> the sprite type, such as a Bitmap
+ */
+public class SpriteCache<S> {
+
+	/**
+	 * Creates and frees the actual sprites.
+	 */
+	public interface SpriteFactory<S> {
+		/**
+		 * @return a circle with the given radius and ARGB color, centered
+		 *         in the sprite.
+		 */
+		S create(int radius, int color);
+
+		int getByteCount(S sprite);
+
+		/**
+		 * Called when a sprite is evicted. It won't be handed out again.
+		 */
+		void release(S sprite);
+	}
+
+	private static final int EMPTY = -1;
+
+	private final SpriteFactory<S> factory;
+	private final long maxBytes;
+	private final int bucketSize;
+
+	// entries, indexed by entry number, linked from newest to oldest use.
+	// Free entries are chained through older.
+	private final long[] keys;
+	private final Object[] sprites;
+	private final int[] sizes;
+	private final int[] newer, older;
+	private int newest = EMPTY, oldest = EMPTY;
+	private int free;
+
+	// open addressing from key hash to entry number
+	private final int[] table;
+	private final int mask;
+
+	private int count;
+	private long bytes;
+
+	// counters, only written by the drawing thread
+	private volatile long hits;
+	private volatile long misses;
+	private volatile long evictions;
+
+	/**
+	 * @param maxSprites at most this many sprites are kept.
+	 * @param maxBytes sprites are evicted to keep their total size under
+	 *        this.
+	 * @param bucketSize radii are rounded to a multiple of this, in pixels.
+	 */
+	public SpriteCache(SpriteFactory<S> factory, int maxSprites, long maxBytes,
+			int bucketSize) {
+		if (maxSprites < 1 || bucketSize < 1) {
+			throw new IllegalArgumentException(
+					"maxSprites and bucketSize must be at least 1");
+		}
+		this.factory = factory;
+		this.maxBytes = maxBytes;
+		this.bucketSize = bucketSize;
+
+		keys = new long[maxSprites];
+		sprites = new Object[maxSprites];
+		sizes = new int[maxSprites];
+		newer = new int[maxSprites];
+		older = new int[maxSprites];
+		for (int i = 0; i < maxSprites; i++) {
+			older[i] = i + 1 < maxSprites ? i + 1 : EMPTY;
+		}
+		free = 0;
+
+		// at most half full, so probe chains stay short
+		int tableSize = Integer.highestOneBit(maxSprites * 2 - 1) << 1;
+		table = new int[tableSize];
+		mask = tableSize - 1;
+		for (int i = 0; i < tableSize; i++) {
+			table[i] = EMPTY;
+		}
+	}
+
+	/**
+	 * @return the radius a circle is actually drawn with.
+	 */
+	public int bucketRadius(float radius) {
+		int r = Math.round(radius / bucketSize) * bucketSize;
+		return Math.max(r, 1);
+	}
+
+	/**
+	 * Returns the sprite for a circle, creating it if needed.
+	 */
+	@SuppressWarnings("unchecked")
+	public S get(float radius, int color) {
+		int r = bucketRadius(radius);
+		long key = ((long) r << 32) | (color & 0xffffffffL);
+
+		int e = find(key);
+		if (e != EMPTY) {
+			hits++;
+			unlink(e);
+			linkNewest(e);
+			return (S) sprites[e];
+		}
+
+		misses++;
+		if (free == EMPTY) {
+			evict(oldest);
+		}
+		S sprite = factory.create(r, color);
+		e = free;
+		free = older[e];
+		keys[e] = key;
+		sprites[e] = sprite;
+		sizes[e] = factory.getByteCount(sprite);
+		bytes += sizes[e];
+		count++;
+		insert(e);
+		linkNewest(e);
+
+		while (bytes > maxBytes && oldest != e) {
+			evict(oldest);
+		}
+		return sprite;
+	}
+
+	/**
+	 * Releases every sprite.
+	 */
+	public void clear() {
+		while (oldest != EMPTY) {
+			evict(oldest);
+		}
+	}
+
+	public int getSpriteCount() {
+		return count;
+	}
+
+	/**
+	 * @return total size of the cached sprites.
+	 */
+	public long getByteCount() {
+		return bytes;
+	}
+
+	public long getHitCount() {
+		return hits;
+	}
+
+	public long getMissCount() {
+		return misses;
+	}
+
+	public long getEvictionCount() {
+		return evictions;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void evict(int e) {
+		S sprite = (S) sprites[e];
+		remove(e);
+		unlink(e);
+		bytes -= sizes[e];
+		count--;
+		sprites[e] = null;
+		older[e] = free;
+		free = e;
+		evictions++;
+		factory.release(sprite);
+	}
+
+	private void linkNewest(int e) {
+		newer[e] = EMPTY;
+		older[e] = newest;
+		if (newest != EMPTY) {
+			newer[newest] = e;
+		} else {
+			oldest = e;
+		}
+		newest = e;
+	}
+
+	private void unlink(int e) {
+		if (newer[e] != EMPTY) {
+			older[newer[e]] = older[e];
+		} else {
+			newest = older[e];
+		}
+		if (older[e] != EMPTY) {
+			newer[older[e]] = newer[e];
+		} else {
+			oldest = newer[e];
+		}
+	}
+
+	private int slotOf(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h >>> 32) & mask;
+	}
+
+	private int find(long key) {
+		for (int i = slotOf(key); table[i] != EMPTY; i = (i + 1) & mask) {
+			if (keys[table[i]] == key) {
+				return table[i];
+			}
+		}
+		return EMPTY;
+	}
+
+	private void insert(int e) {
+		int i = slotOf(keys[e]);
+		while (table[i] != EMPTY) {
+			i = (i + 1) & mask;
+		}
+		table[i] = e;
+	}
+
+	private void remove(int e) {
+		int i = slotOf(keys[e]);
+		while (table[i] != e) {
+			i = (i + 1) & mask;
+		}
+		table[i] = EMPTY;
+
+		// move later entries of the probe chain back, so lookups don't stop
+		// at the hole
+		for (int j = (i + 1) & mask; table[j] != EMPTY; j = (j + 1) & mask) {
+			int home = slotOf(keys[table[j]]);
+			boolean movable = i <= j ? (home <= i || home > j)
+					: (home <= i && home > j);
+			if (movable) {
+				table[i] = table[j];
+				table[j] = EMPTY;
+				i = j;
+			}
+		}
+	}
+}
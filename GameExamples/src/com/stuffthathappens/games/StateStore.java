@@ -0,0 +1,120 @@
+package com.stuffthathappens.games;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.os.Bundle;
+
+/**
+ * Saves a model's state across pause, rotation and process death. Small
+ * states go straight into the instance state bundle as one byte array.
+ * Big ones would blow the bundle's size limit, so they go to a memory
+ * mapped file and the bundle only remembers the file name.
+ * <p>
+ * Either way the model reads its state back straight from the buffer, one
+ * bulk copy per array.
+ * <p>
+ * A state file is kept after it has been read. Android may restore the
+ * same bundle again, such as when the process is killed right after a
+ * restore, so the file only goes away when the next save replaces it.
+ */
+public class StateStore {
+	// The whole bundle, with the views' state and everything else, has to
+	// fit in one binder transaction of about 1 MB that's shared with the
+	// rest of the process, so only small states go in it
+	private static final int MAX_BUNDLE_BYTES = 64 * 1024;
+
+	private static final String FILE_SUFFIX = ".file";
+	private static final String STATE_EXTENSION = ".state";
+	private static final String TEMP_EXTENSION = ".tmp";
+
+	private StateStore() {
+	}
+
+	/**
+	 * @param dir where big states are written, such as the cache dir.
+	 */
+	public static void save(Saveable model, Bundle out, String key, File dir)
+			throws IOException {
+		ByteBuffer state = model.saveState();
+		int size = state.remaining();
+
+		if (size <= MAX_BUNDLE_BYTES) {
+			byte[] bytes;
+			if (state.hasArray() && state.arrayOffset() == 0
+					&& state.array().length == size) {
+				// the usual case, no need to copy
+				bytes = state.array();
+			} else {
+				bytes = new byte[size];
+				state.get(bytes);
+			}
+			out.putByteArray(key, bytes);
+			// a file from an earlier save is stale now
+			new File(dir, key + STATE_EXTENSION).delete();
+			return;
+		}
+
+		// written to the side and renamed over the old file, so a bundle
+		// that still names the old file never sees half a state
+		File file = new File(dir, key + STATE_EXTENSION);
+		File temp = new File(dir, key + STATE_EXTENSION + TEMP_EXTENSION);
+		RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+		try {
+			raf.setLength(size);
+			MappedByteBuffer map = raf.getChannel().map(
+					FileChannel.MapMode.READ_WRITE, 0, size);
+			map.put(state);
+			map.force();
+		} finally {
+			raf.close();
+		}
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("could not replace " + file);
+		}
+		out.putString(key + FILE_SUFFIX, file.getPath());
+	}
+
+	/**
+	 * Restores what {@link #save(Saveable, Bundle, String, File)} wrote, if
+	 * anything. The state file, if there is one, is left alone, even when
+	 * it can't be read.
+	 *
+	 * @return true if a state was found and restored.
+	 * @throws IllegalArgumentException if the saved state can't be read by
+	 *         this model.
+	 */
+	public static boolean restore(Saveable model, Bundle in, String key)
+			throws IOException {
+		if (in == null) {
+			return false;
+		}
+		byte[] bytes = in.getByteArray(key);
+		if (bytes != null) {
+			model.restoreState(ByteBuffer.wrap(bytes).order(ByteOrder.nativeOrder()));
+			return true;
+		}
+
+		String path = in.getString(key + FILE_SUFFIX);
+		if (path == null) {
+			return false;
+		}
+		File file = new File(path);
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY,
+					0, channel.size());
+			model.restoreState(map.order(ByteOrder.nativeOrder()));
+		} finally {
+			raf.close();
+		}
+		return true;
+	}
+}
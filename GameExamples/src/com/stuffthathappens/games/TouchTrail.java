@@ -0,0 +1,129 @@
+package com.stuffthathappens.games;
+
+import android.view.MotionEvent;
+
+/**
+ * Turns drags into evenly spaced points. Every pointer is followed, along
+ * with the historical samples Android batches into each move event, so
+ * fast drags don't leave gaps. A point is only kept once its pointer has
+ * moved at least the minimum spacing since the last one, which keeps a
+ * slow drag from piling hundreds of points in one spot.
+ * <p>
+ * The points from one event are collected into {@link #xs} and
+ * {@link #ys}, which are reused from event to event.
+ * <p>
+ * Needs the multi-touch <code>MotionEvent</code> methods, so Android 2.0
+ * (API level 5) or newer.
+ */
+public class TouchTrail {
+	// pointer ids are small, usually below 10
+	private static final int MAX_POINTERS = 16;
+
+	public float[] xs = new float[32];
+	public float[] ys = new float[32];
+	public int count;
+
+	private final float[] lastX = new float[MAX_POINTERS];
+	private final float[] lastY = new float[MAX_POINTERS];
+	private final boolean[] down = new boolean[MAX_POINTERS];
+	private float minSpacingSquared;
+
+	/**
+	 * @param minSpacing how far apart, in pixels, the points along a drag
+	 *        are kept.
+	 */
+	public TouchTrail(float minSpacing) {
+		setMinSpacing(minSpacing);
+	}
+
+	public void setMinSpacing(float minSpacing) {
+		minSpacingSquared = minSpacing * minSpacing;
+	}
+
+	/**
+	 * Collects the points from one touch event. A pointer going down always
+	 * produces a point, moves only produce points where the spacing allows.
+	 *
+	 * @return how many points were collected, same as {@link #count}.
+	 */
+	public int sample(MotionEvent event) {
+		count = 0;
+		int action = event.getAction();
+		switch (action & MotionEvent.ACTION_MASK) {
+		case MotionEvent.ACTION_DOWN:
+		case MotionEvent.ACTION_POINTER_DOWN: {
+			int index = pointerIndex(action);
+			int id = event.getPointerId(index);
+			if (id < MAX_POINTERS) {
+				down[id] = true;
+				keep(id, event.getX(index), event.getY(index));
+			}
+			break;
+		}
+		case MotionEvent.ACTION_MOVE: {
+			final int pointers = event.getPointerCount();
+			final int history = event.getHistorySize();
+			// oldest samples first, so each pointer's trail stays in order
+			for (int h = 0; h < history; h++) {
+				for (int p = 0; p < pointers; p++) {
+					offer(event.getPointerId(p), event.getHistoricalX(p, h),
+							event.getHistoricalY(p, h));
+				}
+			}
+			for (int p = 0; p < pointers; p++) {
+				offer(event.getPointerId(p), event.getX(p), event.getY(p));
+			}
+			break;
+		}
+		case MotionEvent.ACTION_POINTER_UP: {
+			int index = pointerIndex(action);
+			int id = event.getPointerId(index);
+			if (id < MAX_POINTERS) {
+				down[id] = false;
+			}
+			break;
+		}
+		case MotionEvent.ACTION_UP:
+		case MotionEvent.ACTION_CANCEL:
+			for (int i = 0; i < MAX_POINTERS; i++) {
+				down[i] = false;
+			}
+			break;
+		}
+		return count;
+	}
+
+	/**
+	 * @return which pointer went down or up. The _INDEX_ names for these
+	 *         constants only came in API level 8, but the _ID_ ones hold the
+	 *         same index despite their name.
+	 */
+	@SuppressWarnings("deprecation")
+	private static int pointerIndex(int action) {
+		return (action & MotionEvent.ACTION_POINTER_ID_MASK)
+				>> MotionEvent.ACTION_POINTER_ID_SHIFT;
+	}
+
+	private void offer(int id, float x, float y) {
+		if (id >= MAX_POINTERS || !down[id]) {
+			return;
+		}
+		float dx = x - lastX[id];
+		float dy = y - lastY[id];
+		if (dx * dx + dy * dy >= minSpacingSquared) {
+			keep(id, x, y);
+		}
+	}
+
+	private void keep(int id, float x, float y) {
+		lastX[id] = x;
+		lastY[id] = y;
+		if (count == xs.length) {
+			xs = CircleBuffer.grow(xs, count, count * 2);
+			ys = CircleBuffer.grow(ys, count, count * 2);
+		}
+		xs[count] = x;
+		ys[count] = y;
+		count++;
+	}
+}
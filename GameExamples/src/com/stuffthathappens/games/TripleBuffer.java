@@ -0,0 +1,73 @@
+package com.stuffthathappens.games;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands complete frames of data from one writer thread to one reader thread
+ * without either of them ever waiting on the other.
+ * <p>
+ * There are three buffers. The writer fills its back buffer and calls
+ * {@link #publish()}, which swaps it with the spare buffer in a single
+ * atomic step. The reader calls {@link #acquire()}, which swaps its front
+ * buffer with the spare if a newer frame is waiting there. The reader
+ * always gets the newest complete frame, skipped frames are simply dropped,
+ * and neither side can see a half-written buffer.
+ *
+ * @param <T> whatever a frame is stored in, such as a {@link CircleBuffer}
+ */
+public class TripleBuffer<T> {
+	private static final int INDEX_MASK = 3;
+	// set on the spare index when it holds a frame the reader hasn't seen
+	private static final int FRESH = 4;
+
+	private final Object[] buffers;
+	private final AtomicInteger spare = new AtomicInteger(1);
+
+	// only touched by the writer
+	private int back = 0;
+	// only touched by the reader
+	private int front = 2;
+
+	public TripleBuffer(T first, T second, T third) {
+		buffers = new Object[] { first, second, third };
+	}
+
+	/**
+	 * @return the buffer the writer should fill next. Writer thread only.
+	 */
+	@SuppressWarnings("unchecked")
+	public T getBack() {
+		return (T) buffers[back];
+	}
+
+	/**
+	 * Makes the back buffer available to the reader and gives the writer a
+	 * new back buffer. Writer thread only.
+	 */
+	public void publish() {
+		back = spare.getAndSet(back | FRESH) & INDEX_MASK;
+	}
+
+	/**
+	 * Switches to the newest published frame, if there is one the reader
+	 * hasn't seen yet. Reader thread only.
+	 *
+	 * @return true if the front buffer changed.
+	 */
+	public boolean acquire() {
+		if ((spare.get() & FRESH) == 0) {
+			return false;
+		}
+		front = spare.getAndSet(front) & INDEX_MASK;
+		return true;
+	}
+
+	/**
+	 * @return the reader's current frame. It stays untouched until the next
+	 *         call to {@link #acquire()}. Reader thread only.
+	 */
+	@SuppressWarnings("unchecked")
+	public T getFront() {
+		return (T) buffers[front];
+	}
+}
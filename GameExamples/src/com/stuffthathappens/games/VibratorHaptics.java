@@ -0,0 +1,18 @@
+package com.stuffthathappens.games;
+
+import android.os.Vibrator;
+
+/**
+ * Haptic feedback through the phone's vibrator.
+ */
+public class VibratorHaptics implements Haptics {
+	private final Vibrator vibrator;
+	
+	public VibratorHaptics(Vibrator vibrator) {
+		this.vibrator = vibrator;
+	}
+
+	public void vibrate(long milliseconds) {
+		vibrator.vibrate(milliseconds);
+	}
+}
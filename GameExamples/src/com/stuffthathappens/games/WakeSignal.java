@@ -0,0 +1,79 @@
+package com.stuffthathappens.games;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lets a game loop sleep while nothing on screen is changing. The loop
+ * calls {@link #park()}, and anything that could change the picture calls
+ * {@link #wake()}. Waking never blocks, so it is safe to call from the
+ * sensor and UI threads. A wake that arrives before the loop parks isn't
+ * lost, the next park returns right away.
+ * <p>
+ * Only one thread may park at a time.
+ */
+public class WakeSignal {
+	private volatile boolean wakeRequested;
+	private volatile Thread parked;
+
+	// only written by the parking thread
+	private volatile long parks;
+	private volatile long wakes;
+
+	/**
+	 * Blocks until {@link #wake()} is called.
+	 */
+	public void park() throws InterruptedException {
+		parks++;
+		parked = Thread.currentThread();
+		try {
+			while (!wakeRequested) {
+				LockSupport.park();
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+			wakeRequested = false;
+			wakes++;
+		} finally {
+			parked = null;
+		}
+	}
+
+	/**
+	 * Takes a pending wake without blocking, for code that steps a game
+	 * itself, such as a replay.
+	 *
+	 * @return true if {@link #wake()} was called since the last park or
+	 *         poll, which is when {@link #park()} would have returned.
+	 */
+	public boolean poll() {
+		if (!wakeRequested) {
+			return false;
+		}
+		wakeRequested = false;
+		wakes++;
+		return true;
+	}
+
+	public void wake() {
+		wakeRequested = true;
+		Thread t = parked;
+		if (t != null) {
+			LockSupport.unpark(t);
+		}
+	}
+
+	/**
+	 * @return how many times the loop went idle.
+	 */
+	public long getParkCount() {
+		return parks;
+	}
+
+	/**
+	 * @return how many times the loop was woken back up.
+	 */
+	public long getWakeCount() {
+		return wakes;
+	}
+}
@@ -0,0 +1,72 @@
+package com.stuffthathappens.games;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Writes mixed audio to a WAV file instead of the speaker, for checking
+ * the mixer's output and throughput off the device. Never blocks on
+ * anything but the disk.
+ */
+public class WavFileSink implements AudioSink {
+	private static final int HEADER_BYTES = 44;
+	
+	private final int sampleRate;
+	private final RandomAccessFile file;
+	private byte[] bytes = new byte[0];
+	private int dataBytes;
+
+	public WavFileSink(File f, int sampleRate) throws IOException {
+		this.sampleRate = sampleRate;
+		this.file = new RandomAccessFile(f, "rw");
+		file.setLength(0);
+		// the sizes are filled in by close()
+		file.write(new byte[HEADER_BYTES]);
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public void write(short[] samples, int count) throws IOException {
+		if (bytes.length < count * 2) {
+			bytes = new byte[count * 2];
+		}
+		for (int i = 0; i < count; i++) {
+			// WAV is little endian
+			bytes[2 * i] = (byte) samples[i];
+			bytes[2 * i + 1] = (byte) (samples[i] >> 8);
+		}
+		file.write(bytes, 0, count * 2);
+		dataBytes += count * 2;
+	}
+
+	public void close() throws IOException {
+		file.seek(0);
+		file.writeBytes("RIFF");
+		writeIntLE(36 + dataBytes);
+		file.writeBytes("WAVE");
+		file.writeBytes("fmt ");
+		writeIntLE(16);             // size of this chunk
+		writeShortLE(1);            // PCM
+		writeShortLE(1);            // mono
+		writeIntLE(sampleRate);
+		writeIntLE(sampleRate * 2); // bytes per second
+		writeShortLE(2);            // bytes per frame
+		writeShortLE(16);           // bits per sample
+		file.writeBytes("data");
+		writeIntLE(dataBytes);
+		file.close();
+	}
+
+	private void writeIntLE(int v) throws IOException {
+		writeShortLE(v);
+		writeShortLE(v >> 16);
+	}
+
+	private void writeShortLE(int v) throws IOException {
+		file.write(v & 0xff);
+		file.write((v >> 8) & 0xff);
+	}
+}
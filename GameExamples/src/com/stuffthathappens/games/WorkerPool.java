@@ -0,0 +1,149 @@
+package com.stuffthathappens.games;
+
+/**
+ * A fixed set of worker threads that split a range of indexes between
+ * them. The calling thread works on the first chunk itself and returns
+ * once every chunk is done. Chunk boundaries only depend on the range size
+ * and the thread count, so the same input always gets split the same way.
+ * <p>
+ * Nothing is allocated per call, which matters when this runs for every
+ * physics step. Only one thread may call {@link #run(RangeTask, int)} at a
+ * time.
+ */
+public class WorkerPool {
+
+	/**
+	 * One slice of work. Called once per chunk, possibly on different
+	 * threads at the same time, so implementations must only write to the
+	 * indexes they were given, or to slots keyed by <code>chunk</code>.
+	 * Every chunk is run, even when there are more chunks than indexes and
+	 * its range is empty, so per-chunk results are always written.
+	 */
+	public interface RangeTask {
+		void run(int chunk, int from, int to);
+	}
+
+	private final Thread[] workers;
+
+	// all of these are guarded by the pool's monitor
+	private RangeTask task;
+	private int size;
+	private long generation;
+	private int pending;
+	private boolean shutdown = false;
+
+	/**
+	 * @param threads how many threads share the work, including the caller.
+	 *        So a value of 1 starts no threads at all.
+	 */
+	public WorkerPool(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1");
+		}
+		workers = new Thread[threads - 1];
+		for (int i = 0; i < workers.length; i++) {
+			final int chunk = i + 1;
+			workers[i] = new Thread("WorkerPool-" + chunk) {
+				public void run() {
+					workLoop(chunk);
+				}
+			};
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * @return the number of chunks each call is split into.
+	 */
+	public int getThreadCount() {
+		return workers.length + 1;
+	}
+
+	/**
+	 * Splits <code>0..size</code> into one chunk per thread and blocks until
+	 * all of them have run. An interrupt doesn't cut this short, since the
+	 * other chunks may still be writing, but the interrupt status is kept.
+	 */
+	public void run(RangeTask task, int size) {
+		if (workers.length == 0) {
+			task.run(0, 0, size);
+			return;
+		}
+		synchronized (this) {
+			if (shutdown) {
+				throw new IllegalStateException("WorkerPool was shut down");
+			}
+			this.task = task;
+			this.size = size;
+			pending = workers.length;
+			generation++;
+			notifyAll();
+		}
+		
+		runChunk(task, size, 0);
+		
+		boolean interrupted = false;
+		synchronized (this) {
+			while (pending > 0 && !shutdown) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			this.task = null;
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stops the worker threads. The pool can't be used afterwards.
+	 */
+	public synchronized void shutdown() {
+		shutdown = true;
+		notifyAll();
+	}
+
+	private void workLoop(int chunk) {
+		long seen = 0;
+		while (true) {
+			RangeTask lTask;
+			int lSize;
+			synchronized (this) {
+				while (!shutdown && generation == seen) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (shutdown) {
+					return;
+				}
+				seen = generation;
+				lTask = task;
+				lSize = size;
+			}
+			
+			try {
+				runChunk(lTask, lSize, chunk);
+			} finally {
+				synchronized (this) {
+					if (--pending == 0) {
+						notifyAll();
+					}
+				}
+			}
+		}
+	}
+
+	private void runChunk(RangeTask lTask, int lSize, int chunk) {
+		int chunks = workers.length + 1;
+		int from = (int) ((long) lSize * chunk / chunks);
+		int to = (int) ((long) lSize * (chunk + 1) / chunks);
+		lTask.run(chunk, from, to);
+	}
+}